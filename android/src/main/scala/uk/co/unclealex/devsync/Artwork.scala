@@ -17,29 +17,158 @@
 package uk.co.unclealex.devsync
 
 import android.graphics.{Bitmap, BitmapFactory, Matrix, RectF}
+import android.util.LruCache
+import devsync.json.RelativePath
 import macroid.ContextWrapper
 
 /**
-  * Create a bitmap from an array of bytes or return a default image.
+  * Create a bitmap from an array of bytes or return a default image. Scaled bitmaps are kept in a small LRU
+  * cache keyed by album so that a synchronisation does not decode the same cover for every track.
   **/
 object Artwork {
 
+  /**
+    * The maximum number of bytes of scaled bitmaps to keep in memory.
+    */
+  private val CACHE_SIZE: Int = 4 * 1024 * 1024 // 4 MiB
+
+  /**
+    * Scaled bitmaps keyed by album and size. The default image is cached under a different prefix so that it can
+    * never be mistaken for an album's artwork.
+    */
+  private val scaledBitmaps: LruCache[String, Bitmap] = new LruCache[String, Bitmap](CACHE_SIZE) {
+    override def sizeOf(key: String, bitmap: Bitmap): Int = bitmap.getByteCount
+  }
+
   /**
     * Create a bitmap from an array of bytes or return a default image.
     * @param maybeData The image data, if any.
     * @param width The required width of the object.
     * @param height The required height of the object.
+    * @param maybeAlbumRelativePath The relative path of the album the artwork belongs to, if known. If given,
+    *                               the scaled bitmap is cached and reused for other tracks on the same album.
     * @param cw An implicit wrapper for the current context.
     * @return A new bitmap meeting the specifications
     */
-  def apply(maybeData: Option[Array[Byte]], width: Int, height: Int)(implicit cw: ContextWrapper): Bitmap = {
-    val context = cw.bestAvailable
-    val maybeUnscaledBitmap = for {
+  def apply(maybeData: Option[Array[Byte]],
+            width: Int,
+            height: Int,
+            maybeAlbumRelativePath: Option[RelativePath] = None)(implicit cw: ContextWrapper): Bitmap = {
+    val maybeScaledBitmap = for {
       data <- maybeData
-      bitmap <- Option(BitmapFactory.decodeByteArray(data, 0, data.length))
+      bitmap <- cached(maybeAlbumRelativePath.map(albumKey(_, width, height))) {
+        decode(data, width, height).map(scale(_, width, height))
+      }
     } yield bitmap
-    val unscaledBitmap = maybeUnscaledBitmap.getOrElse(
-      BitmapFactory.decodeResource(context.getResources, R.drawable.no_artwork))
+    maybeScaledBitmap.getOrElse(noArtwork(width, height))
+  }
+
+  /**
+    * Get an album's artwork if it has already been scaled to the required size so that it does not need to be
+    * downloaded again.
+    * @param albumRelativePath The relative path of the album.
+    * @param width The required width of the object.
+    * @param height The required height of the object.
+    * @return The cached bitmap, if any.
+    */
+  def cachedAlbumArtwork(albumRelativePath: RelativePath, width: Int, height: Int): Option[Bitmap] = {
+    Option(scaledBitmaps.get(albumKey(albumRelativePath, width, height)))
+  }
+
+  private def albumKey(albumRelativePath: RelativePath, width: Int, height: Int): String =
+    s"album|$albumRelativePath|${width}x$height"
+
+  /**
+    * Get the default image scaled to the required size, decoding it only once per size.
+    * @param width The required width of the object.
+    * @param height The required height of the object.
+    * @param cw An implicit wrapper for the current context.
+    * @return The default image.
+    */
+  private def noArtwork(width: Int, height: Int)(implicit cw: ContextWrapper): Bitmap = {
+    val context = cw.bestAvailable
+    cached(Some(s"default|${width}x$height")) {
+      val options = boundedOptions(width, height) { options =>
+        BitmapFactory.decodeResource(context.getResources, R.drawable.no_artwork, options)
+      }
+      Option(BitmapFactory.decodeResource(context.getResources, R.drawable.no_artwork, options)).map(scale(_, width, height))
+    }.get
+  }
+
+  /**
+    * Look for a bitmap in the cache or, if it is not there, create and cache it.
+    * @param maybeKey The cache key or none if the bitmap should not be cached.
+    * @param builder The code used to create the bitmap.
+    * @return The cached or newly created bitmap, if any.
+    */
+  private def cached(maybeKey: Option[String])(builder: => Option[Bitmap]): Option[Bitmap] = {
+    maybeKey.flatMap(key => Option(scaledBitmaps.get(key))).orElse {
+      val maybeBitmap = builder
+      for {
+        key <- maybeKey
+        bitmap <- maybeBitmap
+      } scaledBitmaps.put(key, bitmap)
+      maybeBitmap
+    }
+  }
+
+  /**
+    * Decode image data, down-sampling it so that it is no bigger than it needs to be.
+    * @param data The image data.
+    * @param width The required width of the object.
+    * @param height The required height of the object.
+    * @return The decoded bitmap or none if the data could not be decoded.
+    */
+  private def decode(data: Array[Byte], width: Int, height: Int): Option[Bitmap] = {
+    val options = boundedOptions(width, height) { options =>
+      BitmapFactory.decodeByteArray(data, 0, data.length, options)
+    }
+    Option(BitmapFactory.decodeByteArray(data, 0, data.length, options))
+  }
+
+  /**
+    * Read the bounds of an image and create decoding options that sample it down to the required size.
+    * @param width The required width of the object.
+    * @param height The required height of the object.
+    * @param boundsDecoder The code used to decode the image's bounds.
+    * @return Options that can be used to decode the image.
+    */
+  private def boundedOptions(width: Int, height: Int)(boundsDecoder: BitmapFactory.Options => Unit): BitmapFactory.Options = {
+    val options = new BitmapFactory.Options
+    options.inJustDecodeBounds = true
+    boundsDecoder(options)
+    options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height)
+    options.inJustDecodeBounds = false
+    options
+  }
+
+  /**
+    * Calculate the largest power of two sample size that keeps both dimensions at least as big as required.
+    * @param actualWidth The width of the original image.
+    * @param actualHeight The height of the original image.
+    * @param width The required width.
+    * @param height The required height.
+    * @return A sample size suitable for [[BitmapFactory.Options.inSampleSize]].
+    */
+  private def sampleSize(actualWidth: Int, actualHeight: Int, width: Int, height: Int): Int = {
+    if (width <= 0 || height <= 0) {
+      1
+    }
+    else {
+      Iterator.iterate(1)(_ * 2).
+        takeWhile(size => actualWidth / (size * 2) >= width && actualHeight / (size * 2) >= height).
+        foldLeft(1)((_, size) => size * 2)
+    }
+  }
+
+  /**
+    * Scale a bitmap so that it fits inside the required size.
+    * @param unscaledBitmap The bitmap to scale.
+    * @param width The required width.
+    * @param height The required height.
+    * @return A scaled bitmap.
+    */
+  private def scale(unscaledBitmap: Bitmap, width: Int, height: Int): Bitmap = {
     val m = new Matrix
     m.setRectToRect(
       new RectF(0, 0, unscaledBitmap.getWidth, unscaledBitmap.getHeight),
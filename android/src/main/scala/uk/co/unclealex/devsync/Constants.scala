@@ -51,5 +51,15 @@ object Constants {
       * The preference key used to store the location of a user's local music directory.
       */
     val resourceUri = "resourceUri"
+
+    /**
+      * The preference key used to store the URL a Flac Manager server was last found at.
+      */
+    val serverUrl = "serverUrl"
+
+    /**
+      * The preference key used to store the URL a development Flac Manager server was last found at.
+      */
+    val devServerUrl = "devServerUrl"
   }
 }
@@ -107,8 +107,9 @@ class DeviceDiscoveryActivity extends Activity with Contexts[Activity] with Pass
           show
       case Success(deviceDescriptorAndUri) =>
         val dev: Boolean = Option(getIntent.getExtras).exists(_.getBoolean("FLAC_DEV"))
+        val flacManagerDiscovery = Services.cachingFlacManagerDiscovery(getPreferences(Context.MODE_PRIVATE))
         Future {
-          Services.flacManagerDiscovery.discover(dev, 30.seconds) match {
+          flacManagerDiscovery.discover(dev, 30.seconds) match {
             case Success(url) =>
               Ui(next(deviceDescriptorAndUri, url.toString)).run
             case _ =>
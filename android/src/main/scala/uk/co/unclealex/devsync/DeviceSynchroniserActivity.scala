@@ -149,11 +149,14 @@ class DeviceSynchroniserActivity extends AppCompatActivity with Contexts[AppComp
 
     private def loadArtwork(vh: AlbumViewHolder, changelogItem: ChangelogItem): Future[Option[W]] = Future {
       val artworkView: W = vh.albumArtwork.get.get
-      val maybeBuffer: Option[Array[Byte]] = {
-        val buffer = new ByteArrayOutputStream()
-        changesClient.artwork(changelogItem, buffer).toOption.map(_ => buffer.toByteArray)
+      val (width, height) = (artworkView.getMaxWidth, artworkView.getMaxHeight)
+      Artwork.cachedAlbumArtwork(changelogItem.parentRelativePath, width, height).getOrElse {
+        val maybeBuffer: Option[Array[Byte]] = {
+          val buffer = new ByteArrayOutputStream()
+          changesClient.artwork(changelogItem, buffer).toOption.map(_ => buffer.toByteArray)
+        }
+        Artwork(maybeBuffer, width, height, Some(changelogItem.parentRelativePath))
       }
-      Artwork(maybeBuffer, artworkView.getMaxWidth, artworkView.getMaxHeight)
     }.mapUi { bitmap =>
       vh.albumArtwork <~ ivSrc(bitmap)
     }
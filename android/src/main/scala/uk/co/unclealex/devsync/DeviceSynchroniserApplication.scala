@@ -48,10 +48,11 @@ class DeviceSynchroniserApplication extends Application with StrictLogging {
   }
 
   /**
-    * Destroy the HTTP cache.
+    * Destroy the HTTP cache and stop looking for Flac Manager servers.
     */
   override def onTerminate(): Unit = {
     Option(HttpResponseCache.getInstalled).foreach(_.flush())
+    Services.flacManagerDiscovery.shutdown()
     super.onTerminate()
   }
 }
@@ -16,7 +16,7 @@
 
 package uk.co.unclealex.devsync
 
-import java.io.{IOException, InputStream, OutputStream}
+import java.io.{BufferedOutputStream, IOException, InputStream, OutputStream}
 
 import android.net.Uri
 import android.support.v4.provider.DocumentFile
@@ -135,6 +135,27 @@ object DocumentFileResource {
       }
     }
 
+    /**
+      * @inheritdoc
+      */
+    override def children(documentFile: DocumentFile): Seq[DocumentFile] =
+      Option(documentFile.listFiles()).map(_.toSeq).getOrElse(Seq.empty)
+
+    /**
+      * @inheritdoc
+      */
+    override def isDirectory(documentFile: DocumentFile): Boolean = documentFile.isDirectory
+
+    /**
+      * @inheritdoc
+      */
+    override def name(documentFile: DocumentFile): String = Option(documentFile.getName).getOrElse("")
+
+    /**
+      * @inheritdoc
+      */
+    override def size(documentFile: DocumentFile): Long = documentFile.length()
+
     /**
       * @inheritdoc
       */
@@ -156,6 +177,11 @@ object DocumentFileResource {
   class DocumentFileResourceStreamProvider(implicit contextWrapper: ContextWrapper) extends
     ResourceStreamProvider[DocumentFile] {
 
+    /**
+      * The size of the buffer used when writing to a document file.
+      */
+    val WRITE_BUFFER_SIZE: Int = 1024 * 1024
+
     /**
       * @inheritdoc
       */
@@ -167,7 +193,19 @@ object DocumentFileResource {
       * @inheritdoc
       */
     override def provideOutputStream(resource: DocumentFile): Try[OutputStream] = {
-        Try(contextWrapper.bestAvailable.getContentResolver.openOutputStream(resource.getUri))
+        // Content providers write straight through so buffer to avoid many small writes to the device.
+        Try(new BufferedOutputStream(
+          contextWrapper.bestAvailable.getContentResolver.openOutputStream(resource.getUri), WRITE_BUFFER_SIZE))
+    }
+
+    /**
+      * @inheritdoc
+      */
+    override def sync(resources: Seq[DocumentFile]): Try[Unit] = Try {
+      resources.foreach { resource =>
+        val fileDescriptor = contextWrapper.bestAvailable.getContentResolver.openFileDescriptor(resource.getUri, "rw")
+        IO.closing(fileDescriptor)(_.getFileDescriptor.sync()).get
+      }
     }
   }
 }
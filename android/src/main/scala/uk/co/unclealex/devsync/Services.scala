@@ -18,11 +18,12 @@ package uk.co.unclealex.devsync
 
 import java.net.URL
 
+import android.content.SharedPreferences
 import android.support.v4.provider.DocumentFile
-import devsync.discovery.{ClingFlacManagerDiscovery, FlacManagerDiscovery}
+import devsync.discovery.{CachingFlacManagerDiscovery, FlacManagerDiscovery, RegistryFlacManagerDiscovery}
 import devsync.json.{CirceCodec, JsonCodec}
 import devsync.remote.{ChangesClient, ChangesClientImpl}
-import devsync.sync.{Device, DeviceImpl, NoOpFaultTolerance}
+import devsync.sync.{ChangeScheduler, Device, DeviceImpl, DurabilityPolicy, NoOpFaultTolerance}
 import org.fourthline.cling.android.AndroidUpnpServiceConfiguration
 import org.threeten.bp.Clock
 /**
@@ -36,9 +37,17 @@ object Services {
   val jsonCodec: JsonCodec = new CirceCodec
 
   /**
-    * A singleton instance of [[FlacManagerDiscovery]].
+    * A singleton instance of [[FlacManagerDiscovery]] that keeps track of servers for as long as the app runs.
     */
-  val flacManagerDiscovery: FlacManagerDiscovery = new ClingFlacManagerDiscovery(new AndroidUpnpServiceConfiguration)
+  val flacManagerDiscovery: RegistryFlacManagerDiscovery = new RegistryFlacManagerDiscovery(new AndroidUpnpServiceConfiguration)
+
+  /**
+    * A factory for generating a [[FlacManagerDiscovery]] that first tries where a server was last found.
+    * @param prefs The preferences used to remember where a server was last found.
+    * @return A new [[FlacManagerDiscovery]] that races the last known URL against a search.
+    */
+  def cachingFlacManagerDiscovery(prefs: SharedPreferences): FlacManagerDiscovery =
+    new CachingFlacManagerDiscovery(flacManagerDiscovery, new SharedPreferencesUrlStore(prefs))
 
   /**
     * A factory for generating a [[ChangesClient]]
@@ -55,6 +64,13 @@ object Services {
   /**
     * A singleton instance of [[Device]]
     */
-  val device: Device[DocumentFile] = new DeviceImpl[DocumentFile](jsonCodec, clock, NoOpFaultTolerance)
+  val device: Device[DocumentFile] =
+    new DeviceImpl[DocumentFile](
+      jsonCodec,
+      clock,
+      NoOpFaultTolerance,
+      changeScheduler = ChangeScheduler.newestAlbumFirst,
+      durabilityPolicy = DurabilityPolicy.balanced,
+      useDeviceIndex = true)
 
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.unclealex.devsync
+
+import java.net.URL
+
+import android.content.SharedPreferences
+import devsync.discovery.UrlStore
+
+import scala.util.Try
+
+/**
+  * A [[UrlStore]] that uses Android shared preferences.
+  * @param prefs The preferences used to store URLs.
+  **/
+class SharedPreferencesUrlStore(prefs: SharedPreferences) extends UrlStore {
+
+  /**
+    * @inheritdoc
+    */
+  override def load(dev: Boolean): Option[URL] = {
+    Option(prefs.getString(key(dev), null)).flatMap(url => Try(new URL(url)).toOption)
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def save(dev: Boolean, url: URL): Unit = {
+    prefs.edit().putString(key(dev), url.toString).apply()
+  }
+
+  private def key(dev: Boolean): String = if (dev) Constants.Prefs.devServerUrl else Constants.Prefs.serverUrl
+}
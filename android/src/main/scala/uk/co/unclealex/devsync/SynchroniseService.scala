@@ -69,7 +69,17 @@ class SynchroniseService extends IntentService("devsync") with Contexts[Service]
     val deviceListener = createNewDeviceListener
     val device = Services.device
     implicit val resourceStreamProvider: DocumentFileResourceStreamProvider = new DocumentFileResourceStreamProvider()
-    device.synchronise(rootDocumentFile, changesClient, deviceListener)
+    // Without any history, comparing the device with the server is cheaper than replaying every change ever made.
+    val historyLost: Boolean = device.reloadDeviceDescriptor(rootDocumentFile).toOption.exists { deviceDescriptor =>
+      deviceDescriptor.maybeLastModified.isEmpty && deviceDescriptor.maybeOffset.isEmpty
+    }
+    if (historyLost) {
+      // Music that the server does not know about could have been put there by the user, so it is never removed here.
+      device.reconcile(rootDocumentFile, changesClient, deviceListener, removeUnknownMusic = false)
+    }
+    else {
+      device.synchronise(rootDocumentFile, changesClient, deviceListener)
+    }
   }
 
   /**
@@ -193,7 +203,7 @@ class SynchroniseService extends IntentService("devsync") with Contexts[Service]
               case Removal(relativePath, _) => Seq(Messages.Sync.removing, relativePath.toString())
             }
         }
-        builder.setLargeIcon(Artwork(maybeArtwork, iconWidth, iconHeight))
+        builder.setLargeIcon(Artwork(maybeArtwork, iconWidth, iconHeight, change.relativePath.maybeParent))
         val style = lines.foldLeft(new Notification.InboxStyle()) { (style, line) => style.addLine(line) }
         builder.setStyle(style)
     }
@@ -16,8 +16,7 @@
 
 package devsync.scalafx
 
-import java.io.ByteArrayInputStream
-
+import scala.collection.concurrent.TrieMap
 import scalafx.scene.image.Image
 
 /**
@@ -26,20 +25,33 @@ import scalafx.scene.image.Image
 object Artwork {
 
   /**
-    * Generate artwork from a raw byte array or use a default image.
-    * @param maybeData The artwork data, if any.
-    * @return An image that contains either the supplied artwork data or a default image.
+    * Default images, keyed by their requested size.
+    */
+  private val emptyImages: TrieMap[(Double, Double), Image] = TrieMap.empty
+
+  /**
+    * Decode artwork from an [[ArtworkStore]] at the size it will be shown or use a default image.
+    * @param maybeArtworkKey The key of the artwork in the store, if any.
+    * @param artworkStore The store that holds the artwork data.
+    * @param width The width the artwork will be shown at.
+    * @param height The height the artwork will be shown at.
+    * @return An image that contains either the stored artwork or a default image.
     */
-  def apply(maybeData: Option[Array[Byte]]): Image = {
-    maybeData match {
-      case Some(data) => new Image(new ByteArrayInputStream(data))
-      case _ => new Image("/no_artwork.png")
-    }
+  def apply(maybeArtworkKey: Option[ArtworkKey], artworkStore: ArtworkStore, width: Double, height: Double): Image = {
+    val maybeImage = for {
+      artworkKey <- maybeArtworkKey
+      image <- artworkStore.read(artworkKey)(in => new Image(in, width, height, true, true))
+      if !image.error.value
+    } yield image
+    maybeImage.getOrElse(empty(width, height))
   }
 
   /**
     * Get the default image.
+    * @param width The width the image will be shown at.
+    * @param height The height the image will be shown at.
     * @return The default image.
     */
-  def empty: Image = apply(None)
+  def empty(width: Double, height: Double): Image =
+    emptyImages.getOrElseUpdate((width, height), new Image("/no_artwork.png", width, height, true, true))
 }
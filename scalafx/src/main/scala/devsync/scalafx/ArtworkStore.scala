@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.{ByteArrayInputStream, InputStream}
+import java.nio.ByteBuffer
+import java.nio.file.{Files, Path}
+import java.util.concurrent.atomic.AtomicLong
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.sync.IO
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.util.Try
+
+/**
+  * A key used to find artwork in an [[ArtworkStore]].
+  * @param id The unique ID of the artwork.
+  */
+case class ArtworkKey(id: Long)
+
+/**
+  * A size-capped store for raw album artwork. The most recently used artwork is kept off-heap up to a maximum
+  * number of bytes and anything older is spilled to a directory on disk, so the amount of memory used stays flat
+  * however many albums are in a changelog.
+  * @param directory The directory used to hold artwork that has been spilled to disk.
+  * @param maxMemoryBytes The maximum number of bytes of artwork to keep in memory.
+  */
+class ArtworkStore(directory: Path, maxMemoryBytes: Long) extends StrictLogging {
+
+  private val ids: AtomicLong = new AtomicLong(0)
+
+  /**
+    * Artwork held in memory, in least recently used order.
+    */
+  private val inMemory: mutable.LinkedHashMap[ArtworkKey, ByteBuffer] = mutable.LinkedHashMap.empty
+
+  private var inMemoryBytes: Long = 0
+
+  /**
+    * Add artwork to the store.
+    * @param data The raw artwork data.
+    * @return A key that can be used to read the artwork back.
+    */
+  def put(data: Array[Byte]): ArtworkKey = synchronized {
+    val key = ArtworkKey(ids.incrementAndGet())
+    val buffer = ByteBuffer.allocateDirect(data.length)
+    buffer.put(data).flip()
+    inMemory.put(key, buffer)
+    inMemoryBytes += data.length
+    spill()
+    key
+  }
+
+  /**
+    * Read artwork from the store.
+    * @param key The key of the artwork to read.
+    * @param reader The code used to read the artwork's data.
+    * @tparam T The type of result to return.
+    * @return The result of reading the artwork or none if it could not be found.
+    */
+  def read[T](key: ArtworkKey)(reader: InputStream => T): Option[T] = {
+    val maybeInMemory: Option[ByteBuffer] = synchronized {
+      inMemory.remove(key).map { buffer =>
+        // Move the artwork to the most recently used end.
+        inMemory.put(key, buffer)
+        buffer.duplicate()
+      }
+    }
+    maybeInMemory match {
+      case Some(buffer) =>
+        val data = new Array[Byte](buffer.remaining())
+        buffer.get(data)
+        IO.closing(new ByteArrayInputStream(data))(reader).toOption
+      case None =>
+        val path = pathOf(key)
+        if (Files.exists(path)) IO.closing(Files.newInputStream(path))(reader).toOption else None
+    }
+  }
+
+  /**
+    * Remove all artwork from the store.
+    */
+  def clear(): Unit = synchronized {
+    inMemory.clear()
+    inMemoryBytes = 0
+    Try(Files.list(directory).iterator().foreach(Files.deleteIfExists))
+  }
+
+  /**
+    * Write the least recently used artwork to disk until the in-memory artwork fits.
+    */
+  private def spill(): Unit = {
+    while (inMemoryBytes > maxMemoryBytes && inMemory.nonEmpty) {
+      val (key, buffer) = inMemory.head
+      inMemory.remove(key)
+      inMemoryBytes -= buffer.capacity()
+      val data = new Array[Byte](buffer.remaining())
+      buffer.duplicate().get(data)
+      Try(Files.write(pathOf(key), data)).recover {
+        case e: Exception => logger.error(s"Could not spill artwork $key to disk", e)
+      }
+    }
+  }
+
+  private def pathOf(key: ArtworkKey): Path = directory.resolve(s"${key.id}.img")
+}
+
+/**
+  * Create [[ArtworkStore]]s.
+  */
+object ArtworkStore {
+
+  /**
+    * Create an artwork store that spills to a new temporary directory.
+    * @param maxMemoryBytes The maximum number of bytes of artwork to keep in memory.
+    * @return A new artwork store.
+    */
+  def temporary(maxMemoryBytes: Long): ArtworkStore = {
+    val directory = Files.createTempDirectory("device-synchroniser-artwork")
+    directory.toFile.deleteOnExit()
+    new ArtworkStore(directory, maxMemoryBytes)
+  }
+}
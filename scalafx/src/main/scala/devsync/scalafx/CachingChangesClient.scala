@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.OutputStream
+import java.net.{HttpURLConnection, URL}
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.json._
+import devsync.remote.ChangesClient
+import org.threeten.bp.Instant
+
+import scala.util.{Success, Try}
+
+/**
+  * A [[ChangesClient]] that keeps a copy of every track it downloads in a [[DownloadCache]] so that tracks that are
+  * removed and later re-added, or that are needed by more than one device, are only downloaded once. Everything
+  * other than music is passed straight through.
+  * @param delegate The [[ChangesClient]] that talks to the Flac Manager server.
+  * @param downloadCache The cache used to hold downloaded music.
+  * @param validate A function that gets a validator for a URL, or none if the URL should not be cached.
+  */
+class CachingChangesClient(
+                            delegate: ChangesClient,
+                            downloadCache: DownloadCache,
+                            validate: URL => Try[Option[String]] = CachingChangesClient.httpValidator) extends ChangesClient with StrictLogging {
+
+  /**
+    * @inheritdoc
+    */
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changes] =
+    delegate.changesSince(user, extension, maybeSince)
+
+  /**
+    * @inheritdoc
+    */
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant], page: Int, pageSize: Int): Try[ChangesPage] =
+    delegate.changesSince(user, extension, maybeSince, page, pageSize)
+
+  /**
+    * @inheritdoc
+    */
+  override def manifest(user: String, extension: Extension): Try[Manifest] = delegate.manifest(user, extension)
+
+  /**
+    * @inheritdoc
+    */
+  override def changelogSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changelog] =
+    delegate.changelogSince(user, extension, maybeSince)
+
+  /**
+    * @inheritdoc
+    */
+  override def music(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit] = {
+    val url: URL = item.links.music
+    validate(url) match {
+      case Success(Some(validator)) =>
+        downloadCache.fetch(DownloadKey(url, validator), delegate.music(item, _), out)
+      case _ =>
+        logger.info(s"Not caching ${item.relativePath} as it could not be validated")
+        delegate.music(item, out)
+    }
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def tags(item: HasLinks with HasRelativePath): Try[Tags] = delegate.tags(item)
+
+  /**
+    * @inheritdoc
+    */
+  override def artwork(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit] = delegate.artwork(item, out)
+
+  /**
+    * Download a track into the download cache, unless it is already there, without writing it anywhere else.
+    * @param item The track to download.
+    * @return Either true if the track was downloaded, false if it was already cached or could not be validated, or
+    *         an exception.
+    */
+  def prefetch(item: HasLinks with HasRelativePath): Try[Boolean] = {
+    val url: URL = item.links.music
+    validate(url).flatMap {
+      case Some(validator) =>
+        val key = DownloadKey(url, validator)
+        if (downloadCache.contains(key)) {
+          Success(false)
+        }
+        else {
+          logger.info(s"Prefetching ${item.relativePath}")
+          downloadCache.fetch(key, delegate.music(item, _), CachingChangesClient.nowhere).map(_ => true)
+        }
+      case None => Success(false)
+    }
+  }
+
+  /**
+    * @return The number of bytes that can be cached before older downloads have to be evicted.
+    */
+  def freeBytes: Long = downloadCache.freeBytes
+
+  /**
+    * @return The current statistics for the download cache.
+    */
+  def statistics: DownloadCacheStatistics = downloadCache.statistics
+}
+
+/**
+  * Validators and helpers for [[CachingChangesClient]]s.
+  */
+object CachingChangesClient {
+
+  /**
+    * An output stream that throws away everything written to it.
+    */
+  val nowhere: OutputStream = new OutputStream {
+    override def write(b: Int): Unit = {}
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {}
+  }
+
+  /**
+    * Get a validator for a URL by asking the server for its entity tag or, failing that, its last modified time and
+    * length.
+    * @param url The URL to validate.
+    * @return The URL's validator or none if the server did not supply one.
+    */
+  def httpValidator(url: URL): Try[Option[String]] = Try {
+    val conn = url.openConnection.asInstanceOf[HttpURLConnection]
+    try {
+      conn.setRequestMethod("HEAD")
+      if (conn.getResponseCode != HttpURLConnection.HTTP_OK) {
+        None
+      }
+      else {
+        val maybeEntityTag: Option[String] = Option(conn.getHeaderField("ETag"))
+        val maybeLastModified: Option[String] = Option(conn.getHeaderField("Last-Modified")).map { lastModified =>
+          s"$lastModified;${conn.getContentLengthLong}"
+        }
+        maybeEntityTag.orElse(maybeLastModified)
+      }
+    }
+    finally {
+      conn.disconnect()
+    }
+  }
+}
@@ -92,6 +92,12 @@ trait ChangelogController {
     * @param callback The code to execute when the synchronise button is pressed.
     */
   def synchronise(callback: => Unit): Unit
+
+  /**
+    * Set the action to be executed when a changelog item is shown to the user.
+    * @param callback The code to execute with the changelog item model that is being shown.
+    */
+  def itemShown(callback: ChangelogItemModel => Unit): Unit
 }
 
 /**
@@ -174,11 +180,27 @@ class ChangelogControllerImpl(
     * A [[ListCell]] that uses a [[ChangelogItemController]]'s view to display a changelog item.
     */
   class ChangelogItemCell extends ListCell[ChangelogItemModel]() {
+
+    /**
+      * The controller for the item currently shown, which must be disposed of when the cell is reused.
+      */
+    private var maybeController: Option[ChangelogItemController] = None
+
     item.onAlteredOption { maybeChangelogItemModel =>
-      graphic = maybeChangelogItemModel.map(ChangelogItemController(_).view).orNull
+      maybeController.foreach(_.dispose())
+      val maybeViewAndController: Option[ViewAndController[ChangelogItemController]] =
+        maybeChangelogItemModel.map(ChangelogItemController(_))
+      maybeController = maybeViewAndController.map(_.controller)
+      graphic = maybeViewAndController.map(_.view).orNull
+      maybeChangelogItemModel.foreach(itemShownCallback)
     }
   }
 
+  /**
+    * The action to execute when a changelog item is shown to the user.
+    */
+  private var itemShownCallback: ChangelogItemModel => Unit = _ => {}
+
   listView.cellFactory = _ => new ChangelogItemCell()
   listView.items()
 
@@ -290,6 +312,13 @@ class ChangelogControllerImpl(
     syncButton.onAction = handle(callback)
   }
 
+  /**
+    * @inheritdoc
+    */
+  override def itemShown(callback: ChangelogItemModel => Unit): Unit = {
+    itemShownCallback = callback
+  }
+
   /**
     * @inheritdoc
     */
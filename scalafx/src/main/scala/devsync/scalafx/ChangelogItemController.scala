@@ -17,22 +17,29 @@
 package devsync.scalafx
 import javafx.scene.{control => jfxc, image => jfxi, layout => jfxl}
 
+import devsync.json.Tags
 import devsync.scalafx.ObservableValues._
 import devsync.scalafx.View._
 import org.threeten.bp.ZoneId
 import org.threeten.bp.format.DateTimeFormatter
 
 import scalafx.Includes._
+import scalafx.event.subscriptions.Subscription
 import scalafx.scene.control.{Label, ProgressBar}
 import scalafx.scene.image.ImageView
 import scalafx.scene.layout.Pane
 
 /**
   * A controller that controls a single changelog item. As all manipulation of a changelog item can be made by
-  * changing its model this controller needs no extra methods.
+  * changing its model this controller only needs to be able to stop listening to its model.
   */
 trait ChangelogItemController {
 
+  /**
+    * Stop listening to the model so that this controller and its view can be garbage collected once they are no
+    * longer shown.
+    */
+  def dispose(): Unit
 }
 
 /**
@@ -81,26 +88,51 @@ class ChangelogItemControllerImpl(private val changelogItemModel: ChangelogItemM
                                   private val progressPane: Pane,
                                   private val progressBar: ProgressBar) extends ChangelogItemController {
 
-  artworkView.image = Artwork(changelogItemModel.maybeArtwork)
-
   val formatter: DateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm, EEE dd/MM/yyyy").withZone(ZoneId.systemDefault())
   updatedLabel.text = formatter.format(changelogItemModel.at)
 
-  changelogItemModel.maybeTags match {
+  /**
+    * Show the artwork for the changelog item or a default image if it has not been loaded.
+    * @param maybeArtwork The artwork, if loaded.
+    */
+  def showArtwork(maybeArtwork: Option[ArtworkKey]): Unit = {
+    artworkView.image = Artwork(maybeArtwork, Services.artworkStore, artworkView.fitWidth.value, artworkView.fitHeight.value)
+  }
+
+  /**
+    * Show the artist and album for the changelog item or its relative path if its tags have not been loaded.
+    * @param maybeTags The tags, if loaded.
+    */
+  def showTags(maybeTags: Option[Tags]): Unit = maybeTags match {
     case Some(tags) =>
       artistLabel.text = tags.albumArtist
       albumLabel.text = tags.formattedAlbum
     case None =>
+      artistLabel.text = ""
       albumLabel.text = changelogItemModel.albumRelativePath.toString
   }
 
-  changelogItemModel.progress.onAltered {
-    case Some((workDone, totalWork)) =>
-      updatedPane.visible = false
-      progressPane.visible = true
-      progressBar.progress = workDone.toDouble / totalWork
-    case _ =>
-      updatedPane.visible = true
-      progressPane.visible = false
-  }
+  showArtwork(changelogItemModel.maybeArtwork)
+  showTags(changelogItemModel.maybeTags)
+
+  /**
+    * The subscriptions to the model, which are cancelled when this controller is disposed.
+    */
+  private val subscriptions: Seq[Subscription] = Seq(
+    changelogItemModel.artwork.onAltered(showArtwork),
+    changelogItemModel.tags.onAltered(showTags),
+    changelogItemModel.progress.onAltered {
+      case Some((workDone, totalWork)) =>
+        updatedPane.visible = false
+        progressPane.visible = true
+        progressBar.progress = workDone.toDouble / totalWork
+      case _ =>
+        updatedPane.visible = true
+        progressPane.visible = false
+    })
+
+  /**
+    * @inheritdoc
+    */
+  override def dispose(): Unit = subscriptions.foreach(_.cancel())
 }
@@ -22,18 +22,37 @@ import org.threeten.bp.Instant
 import scalafx.beans.property.ObjectProperty
 
 /**
-  * A model for a [[devsync.json.ChangelogItem]]
+  * A model for a [[devsync.json.ChangelogItem]]. The tags and artwork are loaded in the background so they start
+  * off empty and are filled in once they have been downloaded.
   *
   * @param at The time of the change.
-  * @param maybeArtwork The album artwork if it could be loaded.
-  * @param maybeTags The tags for a track on the album if they could be loaded.
   * @param albumRelativePath The relative path of the album.
   **/
 case class ChangelogItemModel(
                                at: Instant,
-                               maybeArtwork: Option[Array[Byte]],
-                               maybeTags: Option[Tags],
                                albumRelativePath: RelativePath) {
 
+  /**
+    * The key of the album artwork in the [[ArtworkStore]] if it has been loaded.
+    */
+  val artwork: ObjectProperty[Option[ArtworkKey]] = new ObjectProperty[Option[ArtworkKey]](None, "")
+
+  /**
+    * The tags for a track on the album if they have been loaded.
+    */
+  val tags: ObjectProperty[Option[Tags]] = new ObjectProperty[Option[Tags]](None, "")
+
   val progress: ObjectProperty[Option[(Long, Long)]] = new ObjectProperty[Option[(Long, Long)]](None, "")
-}
\ No newline at end of file
+
+  /**
+    * The key of the album artwork in the [[ArtworkStore]] if it has been loaded.
+    * @return The album artwork's key or none if it has not been loaded or could not be loaded.
+    */
+  def maybeArtwork: Option[ArtworkKey] = artwork.value
+
+  /**
+    * The tags for a track on the album if they have been loaded.
+    * @return The tags or none if they have not been loaded or could not be loaded.
+    */
+  def maybeTags: Option[Tags] = tags.value
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{PriorityBlockingQueue, ThreadPoolExecutor, TimeUnit}
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.json.{ChangelogItem, Tags}
+import devsync.remote.ChangesClient
+
+import scala.collection.concurrent.TrieMap
+import scalafx.application.Platform
+
+/**
+  * Load the tags and artwork for [[ChangelogItemModel]]s in the background using a bounded number of threads.
+  * Models are created straight away with no metadata and are filled in on the JavaFX thread as each download
+  * finishes. Models that are being shown to a user can be moved to the front of the queue.
+  * @param changesClient The [[ChangesClient]] used to download tags and artwork.
+  * @param artworkStore The [[ArtworkStore]] used to hold downloaded artwork.
+  * @param parallelism The maximum number of models to load at the same time.
+  */
+class ChangelogItemModelLoader(changesClient: ChangesClient, artworkStore: ArtworkStore, parallelism: Int = 4) extends StrictLogging {
+
+  /**
+    * A counter used to order tasks. Queued tasks are given increasing priorities whereas prioritised tasks are given
+    * decreasing priorities so that the most recently shown model is loaded next.
+    */
+  private val queuedCounter: AtomicLong = new AtomicLong(0)
+  private val prioritisedCounter: AtomicLong = new AtomicLong(0)
+
+  private val executor: ThreadPoolExecutor =
+    new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue[Runnable]())
+
+  /**
+    * The tasks that have not yet finished, keyed by the model they will populate.
+    */
+  private val pendingTasks: TrieMap[ChangelogItemModel, LoadTask] = TrieMap.empty
+
+  /**
+    * A task that loads the tags and artwork for a single model.
+    * @param changelogItem The changelog item to load.
+    * @param model The model to populate.
+    * @param priority The priority of this task. Lower values are run first.
+    */
+  private class LoadTask(
+                          val changelogItem: ChangelogItem,
+                          val model: ChangelogItemModel,
+                          @volatile var priority: Long) extends Runnable with Comparable[LoadTask] {
+
+    override def compareTo(other: LoadTask): Int = java.lang.Long.compare(priority, other.priority)
+
+    override def run(): Unit = {
+      pendingTasks.remove(model)
+      val maybeTags: Option[Tags] = changesClient.tags(changelogItem).toOption
+      val maybeArtwork: Option[ArtworkKey] = {
+        val out = new ByteArrayOutputStream()
+        changesClient.artwork(changelogItem, out).map(_ => artworkStore.put(out.toByteArray)).toOption
+      }
+      Platform.runLater {
+        model.tags.value = maybeTags
+        model.artwork.value = maybeArtwork
+      }
+    }
+  }
+
+  /**
+    * Create placeholder models for a list of changelog items and start loading their metadata in the background.
+    * @param changelogItems The changelog items to load.
+    * @return A model for each changelog item, in the same order.
+    */
+  def load(changelogItems: Seq[ChangelogItem]): Seq[ChangelogItemModel] = {
+    changelogItems.map { changelogItem =>
+      val model = ChangelogItemModel(changelogItem.at, changelogItem.parentRelativePath)
+      val task = new LoadTask(changelogItem, model, queuedCounter.incrementAndGet())
+      pendingTasks.put(model, task)
+      executor.execute(task)
+      model
+    }
+  }
+
+  /**
+    * Move a model to the front of the queue if its metadata has not yet started loading.
+    * @param model The model that is being shown to a user.
+    */
+  def prioritise(model: ChangelogItemModel): Unit = {
+    pendingTasks.get(model).foreach { task =>
+      // Only requeue the task if it was still waiting to run.
+      if (executor.getQueue.remove(task)) {
+        task.priority = -prioritisedCounter.incrementAndGet()
+        executor.execute(task)
+      }
+    }
+  }
+
+  /**
+    * Stop loading any outstanding models.
+    */
+  def shutdown(): Unit = {
+    logger.info(s"Shutting down with ${pendingTasks.size} changelog items still to load")
+    executor.shutdownNow()
+  }
+}
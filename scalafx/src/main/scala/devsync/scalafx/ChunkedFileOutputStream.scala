@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+import devsync.sync.SizeHint
+
+/**
+  * An output stream that only ever writes whole chunks to a file, apart from the last one. Flash storage formatted
+  * with FAT32 or exFAT updates its allocation table on every write that grows a file so a few large writes are much
+  * faster than many small ones. If the size of the file is known in advance the chunk grows to match it, up to a
+  * limit.
+  * @param channel The channel to write to.
+  * @param defaultChunkSize The size of each chunk if the size of the file is not known.
+  * @param maxChunkSize The largest chunk to use if the size of the file is known.
+  */
+class ChunkedFileOutputStream(
+                               channel: FileChannel,
+                               defaultChunkSize: Int = ChunkedFileOutputStream.DEFAULT_CHUNK_SIZE,
+                               maxChunkSize: Int = ChunkedFileOutputStream.MAX_CHUNK_SIZE) extends OutputStream with SizeHint {
+
+  private var buffer: ByteBuffer = ByteBuffer.allocate(defaultChunkSize)
+
+  /**
+    * @inheritdoc
+    */
+  override def expectSize(size: Long): Unit = {
+    // Only resize before anything has been written so every chunk but the last is the same size.
+    if (buffer.position() == 0 && channel.position() == 0) {
+      val alignment: Long = ChunkedFileOutputStream.ALIGNMENT
+      val alignedSize: Long = (size + alignment - 1) / alignment * alignment
+      val chunkSize: Int = math.min(alignedSize, maxChunkSize.toLong).toInt
+      if (chunkSize > buffer.capacity()) {
+        buffer = ByteBuffer.allocate(chunkSize)
+      }
+    }
+  }
+
+  override def write(b: Int): Unit = {
+    if (!buffer.hasRemaining) {
+      drain()
+    }
+    buffer.put(b.toByte)
+  }
+
+  override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+    var offset: Int = off
+    var remaining: Int = len
+    while (remaining > 0) {
+      if (!buffer.hasRemaining) {
+        drain()
+      }
+      val count: Int = math.min(remaining, buffer.remaining())
+      buffer.put(b, offset, count)
+      offset += count
+      remaining -= count
+    }
+  }
+
+  override def flush(): Unit = drain()
+
+  override def close(): Unit = {
+    try {
+      drain()
+    }
+    finally {
+      channel.close()
+    }
+  }
+
+  private def drain(): Unit = {
+    buffer.flip()
+    while (buffer.hasRemaining) {
+      channel.write(buffer)
+    }
+    buffer.clear()
+  }
+}
+
+/**
+  * Chunk sizes for [[ChunkedFileOutputStream]]s.
+  */
+object ChunkedFileOutputStream {
+
+  /**
+    * The chunk size used when the size of a file is not known.
+    */
+  val DEFAULT_CHUNK_SIZE: Int = 1024 * 1024
+
+  /**
+    * The largest chunk size used when the size of a file is known.
+    */
+  val MAX_CHUNK_SIZE: Int = 8 * 1024 * 1024
+
+  /**
+    * Chunk sizes are always a multiple of this, which is at least as large as the cluster size of most flash storage.
+    */
+  val ALIGNMENT: Int = 64 * 1024
+}
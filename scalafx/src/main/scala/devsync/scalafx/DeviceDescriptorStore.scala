@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.util.prefs.Preferences
+
+import devsync.json.{DeviceDescriptor, JsonCodec}
+
+import scala.util.Try
+
+/**
+  * Remembers the [[DeviceDescriptor]]s of devices that have been synchronised so that their music can be prefetched
+  * whilst they are not connected. Descriptors are kept in the user's Java preferences, one per user and extension.
+  * @param jsonCodec The [[JsonCodec]] used to read and write device descriptors.
+  * @param preferences The preferences node used to store device descriptors.
+  */
+class DeviceDescriptorStore(
+                             jsonCodec: JsonCodec,
+                             preferences: Preferences = Preferences.userNodeForPackage(classOf[DeviceDescriptorStore]).node("devices")) {
+
+  /**
+    * @return All the device descriptors that have been remembered.
+    */
+  def load(): Seq[DeviceDescriptor] = {
+    Try(preferences.keys().toSeq).getOrElse(Seq.empty).flatMap { key =>
+      Option(preferences.get(key, null)).flatMap(json => jsonCodec.parseDeviceDescriptor(json).toOption)
+    }
+  }
+
+  /**
+    * Remember a device descriptor, replacing any previous one for the same user and extension.
+    * @param deviceDescriptor The device descriptor to remember.
+    */
+  def save(deviceDescriptor: DeviceDescriptor): Unit = {
+    preferences.put(key(deviceDescriptor), jsonCodec.writeDeviceDescriptor(deviceDescriptor))
+    Try(preferences.flush())
+  }
+
+  private def key(deviceDescriptor: DeviceDescriptor): String =
+    s"${deviceDescriptor.user}.${deviceDescriptor.extension.extension}"
+}
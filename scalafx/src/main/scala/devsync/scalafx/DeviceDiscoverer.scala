@@ -16,6 +16,7 @@
 
 package devsync.scalafx
 
+import java.io.Closeable
 import java.nio.file.Path
 
 import devsync.json.DeviceDescriptor
@@ -38,4 +39,17 @@ trait DeviceDiscoverer {
   def discover(root: Path,
                levels: Int)
               (implicit ec: ExecutionContext): Try[(DeviceDescriptor, Path)]
+
+  /**
+    * Watch a directory for devices being mounted underneath it.
+    * @param root The directory where devices are mounted.
+    * @param levels The maximum number of levels to search, including the root directory.
+    * @param callback A callback that is called with a device descriptor and a path whenever a device is found.
+    * @param ec An execution context used to find devices asynchronously.
+    * @return Either an object that stops watching when closed or an exception if the directory cannot be watched.
+    */
+  def watch(root: Path,
+            levels: Int)
+           (callback: ((DeviceDescriptor, Path)) => Unit)
+           (implicit ec: ExecutionContext): Try[Closeable]
 }
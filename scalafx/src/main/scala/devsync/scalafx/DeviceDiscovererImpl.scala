@@ -16,23 +16,47 @@
 
 package devsync.scalafx
 
+import java.io.Closeable
+import java.nio.file._
 import java.nio.file.attribute.BasicFileAttributes
-import java.nio.file.{Files, Path}
+import java.util.concurrent.{Executors, ThreadFactory}
 import java.util.function.BiPredicate
 
+import com.typesafe.scalalogging.StrictLogging
 import devsync.json.DeviceDescriptor
 import devsync.scalafx.PathResource._
 import devsync.sync.Device
 
 import scala.collection.JavaConversions._
-import scala.concurrent.ExecutionContext
-import scala.util.Try
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.util.{Failure, Try}
 
 /**
-  * The default implementation of [[DeviceDiscoverer]].
+  * The default implementation of [[DeviceDiscoverer]]. Candidate device roots are probed in parallel on threads
+  * that belong to the discoverer, so that a slow device can never starve a shared execution context.
   * @param device The device filesystem.
+  * @param mountAttempts The number of times to look for a device in a newly created directory, as a device
+  *                      may not be fully mounted when its directory is first created.
+  * @param mountDelay The time to wait between each attempt.
+  * @param probeTimeout The longest time to wait for all candidate device roots to be probed.
   */
-class DeviceDiscovererImpl(val device: Device[Path]) extends DeviceDiscoverer {
+class DeviceDiscovererImpl(val device: Device[Path],
+                           val mountAttempts: Int = 5,
+                           val mountDelay: FiniteDuration = 1.second,
+                           val probeTimeout: FiniteDuration = 30.seconds) extends DeviceDiscoverer with StrictLogging {
+
+  /**
+    * The execution context used to probe candidate device roots. Idle threads are discarded.
+    */
+  private val probeContext: ExecutionContext = ExecutionContext.fromExecutorService(
+    Executors.newCachedThreadPool(new ThreadFactory {
+      override def newThread(r: Runnable): Thread = {
+        val thread = new Thread(r, "device-probe")
+        thread.setDaemon(true)
+        thread
+      }
+    }))
 
   /**
     * @inheritdoc
@@ -42,7 +66,69 @@ class DeviceDiscovererImpl(val device: Device[Path]) extends DeviceDiscoverer {
     val directoryPredicate = new BiPredicate[Path, BasicFileAttributes] {
       override def test(p: Path, bfa: BasicFileAttributes): Boolean = bfa.isDirectory
     }
-    val possibleRoots: Seq[Path] = Files.find(root, levels, directoryPredicate).iterator().toSeq
-    device.findDeviceDescriptor(possibleRoots)
+    val possibleRoots = Try(Files.find(root, levels, directoryPredicate))
+    possibleRoots.flatMap { possibleRootStream =>
+      try {
+        val probes: Seq[Future[(DeviceDescriptor, Path)]] = possibleRootStream.iterator().toList.map { possibleRoot =>
+          Future(device.findDeviceDescriptor(Seq(possibleRoot)))(probeContext).flatMap(Future.fromTry)(probeContext)
+        }
+        // Take the first device found in search order, rather than the first probe to finish, so the result is
+        // always the same. All probes share one deadline so that a hung device cannot block discovery for ever.
+        val deadline: Deadline = probeTimeout.fromNow
+        val empty: Try[(DeviceDescriptor, Path)] = Failure(new IllegalStateException(s"Cannot find a device under $root"))
+        probes.foldLeft(empty) { (acc, probe) =>
+          acc.recoverWith {
+            case _: Exception => Try(Await.result(probe, deadline.timeLeft max Duration.Zero))
+          }
+        }
+      }
+      finally {
+        possibleRootStream.close()
+      }
+    }
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def watch(root: Path, levels: Int)
+                    (callback: ((DeviceDescriptor, Path)) => Unit)
+                    (implicit ec: ExecutionContext): Try[Closeable] = Try {
+    val watchService: WatchService = root.getFileSystem.newWatchService()
+    root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE)
+    val watcher = new Thread(new Runnable {
+      override def run(): Unit = {
+        try {
+          while (true) {
+            val key: WatchKey = watchService.take()
+            val createdDirectories: Seq[Path] = key.pollEvents().toList.map(_.context()).collect {
+              case path: Path => root.resolve(path)
+            }
+            key.reset()
+            createdDirectories.foreach(mounted)
+          }
+        }
+        catch {
+          case _: ClosedWatchServiceException =>
+          case _: InterruptedException =>
+        }
+      }
+
+      def mounted(directory: Path): Unit = {
+        logger.info(s"Looking for a device in newly created directory $directory")
+        val found = (1 to mountAttempts).toStream.map { attempt =>
+          if (attempt != 1) {
+            Thread.sleep(mountDelay.toMillis)
+          }
+          discover(directory, levels - 1)
+        }.find(_.isSuccess)
+        found.foreach(_.foreach(callback))
+      }
+    }, "device-watcher")
+    watcher.setDaemon(true)
+    watcher.start()
+    new Closeable {
+      override def close(): Unit = watchService.close()
+    }
   }
-}
\ No newline at end of file
+}
@@ -16,10 +16,10 @@
 
 package devsync.scalafx
 
-import java.io.ByteArrayOutputStream
+import java.io.Closeable
 import java.net.URL
 import java.nio.file.{Path, Paths}
-import java.util.concurrent.Executors
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
 
 import cats.data.EitherT
 import cats.instances.future._
@@ -27,7 +27,6 @@ import cats.syntax.either._
 import com.typesafe.scalalogging.StrictLogging
 import devsync.json._
 import devsync.monads.FutureEither
-import devsync.remote.ChangesClient
 import devsync.scalafx.PathResource._
 import devsync.sync.{DeviceListener, Progress}
 import javafx.collections.ObservableList
@@ -50,12 +49,29 @@ object DeviceSynchroniserPlus extends JFXApp with StrictLogging {
   private val executorService = Executors.newFixedThreadPool(2)
   implicit val executionContext: ExecutionContext = ExecutionContext.fromExecutor(executorService)
 
+  /**
+    * Looking for a server and a device blocks, so it is done on a thread of its own rather than on the UI thread or
+    * the shared executor.
+    */
+  private val discoveryExecutorService: ExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "device-discovery")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
   private val formatter: DateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm, EEE dd/MM/yyyy").withZone(ZoneId.systemDefault())
 
   stage = new JFXApp.PrimaryStage() {
     title = "Device Synchroniser+"
 
     val controllerAndView: ViewAndController[ChangelogController] = ChangelogController(this) {
+      shutdownChangelog()
+      stopWaitingForDevice()
+      Try(prefetching.close())
+      Services.registryFlacManagerDiscovery.shutdown()
+      discoveryExecutorService.shutdownNow()
       executorService.shutdown()
       this.close()
     }
@@ -66,44 +82,111 @@ object DeviceSynchroniserPlus extends JFXApp with StrictLogging {
     scene = new Scene(view)
 
     onCloseRequest = handle {
+      shutdownChangelog()
+      stopWaitingForDevice()
+      Try(prefetching.close())
+      Services.registryFlacManagerDiscovery.shutdown()
+      discoveryExecutorService.shutdownNow()
       executorService.shutdownNow()
     }
 
-    val discovery = for {
-      _ <- ui {
-        controller.messages("Searching")
-      }
-      synchronisingInformation <- loadSynchronisingInformation()
-      _ <- ui {
-        controller.messages("Loading changes")
-      }
-      changelogItems <- loadChangelogItems(synchronisingInformation)
-      changelogItemModels <- loadChangelogItemModels(synchronisingInformation, changelogItems)
-      _ <- ui {
-        if (changelogItemModels.isEmpty) {
-          controller.noChanges()
+    /**
+      * Download music for remembered devices in the background so that it is ready when they are connected.
+      */
+    val prefetching: Closeable = Services.prefetcher.start()
+
+    /**
+      * The loader used to populate changelog item models in the background, once created.
+      */
+    var maybeChangelogItemModelLoader: Option[ChangelogItemModelLoader] = None
+
+    def shutdownChangelog(): Unit = {
+      maybeChangelogItemModelLoader.foreach(_.shutdown())
+      Services.artworkStore.clear()
+    }
+
+    /**
+      * Look for a server and a device in the background and then show the changes that need to be synchronised.
+      */
+    def startDiscovery(): Unit = {
+      discoveryExecutorService.execute(new Runnable {
+        override def run(): Unit = discover()
+      })
+    }
+
+    /**
+      * Look for a server and a device and then show the changes that need to be synchronised. This blocks so it must
+      * not be called on the UI thread.
+      */
+    def discover(): Unit = {
+      val discovery = for {
+        _ <- ui {
+          controller.messages("Searching")
         }
-        else {
-          controller.changes()
-          controller.changelogItems().addAll(changelogItemModels: _*)
-          val topMessage: String = synchronisingInformation.deviceDescriptor.maybeLastModified match {
-            case Some(at) => s"Last synchronised at ${formatter.format(at)}"
-            case None => "Never synchronised"
-          }
-          val bottomMessage: String = if (changelogItemModels.size == 1) {
-            "There is 1 change"
+        synchronisingInformation <- loadSynchronisingInformation()
+        _ <- ui {
+          controller.messages("Loading changes")
+        }
+        changelogItems <- loadChangelogItems(synchronisingInformation)
+        changelogItemModelLoader <- Try(createChangelogItemModelLoader(synchronisingInformation))
+        changelogItemModels <- loadChangelogItemModels(changelogItemModelLoader, changelogItems)
+        _ <- ui {
+          if (changelogItemModels.isEmpty) {
+            controller.noChanges()
           }
           else {
-            s"There are ${changelogItemModels.size} changes"
+            controller.changes()
+            controller.itemShown(changelogItemModelLoader.prioritise)
+            controller.changelogItems().addAll(changelogItemModels: _*)
+            val topMessage: String = synchronisingInformation.deviceDescriptor.maybeLastModified match {
+              case Some(at) => s"Last synchronised at ${formatter.format(at)}"
+              case None => "Never synchronised"
+            }
+            val bottomMessage: String = if (changelogItemModels.size == 1) {
+              "There is 1 change"
+            }
+            else {
+              s"There are ${changelogItemModels.size} changes"
+            }
+            controller.messages(topMessage, bottomMessage)
+            controller.synchronise(Future(synchronise(synchronisingInformation)))
           }
-          controller.messages(topMessage, bottomMessage)
-          controller.synchronise(Future(synchronise(synchronisingInformation)))
         }
+      } yield {}
+
+      discovery.recover {
+        case NoDeviceFoundException(deviceRoot, _) => waitForDevice(deviceRoot)
+        case ex: Exception => ui(controller.error(ex))
       }
-    } yield {}
+    }
+
+    /**
+      * The watcher looking for a device to be mounted, if no device was found.
+      */
+    @volatile var maybeDeviceWatch: Option[Closeable] = None
+
+    /**
+      * Wait for a device to be mounted and then start discovery again.
+      * @param deviceRoot The directory under which devices are mounted.
+      */
+    def waitForDevice(deviceRoot: Path): Unit = {
+      val tryDeviceWatch = Services.deviceDiscoverer.watch(deviceRoot, deviceLevels) { _ =>
+        stopWaitingForDevice()
+        startDiscovery()
+      }
+      tryDeviceWatch match {
+        case Success(deviceWatch) =>
+          maybeDeviceWatch = Some(deviceWatch)
+          ui(controller.messages("Waiting for a device to be connected"))
+        case Failure(ex: Exception) =>
+          ui(controller.error(ex))
+        case Failure(th) => throw th
+      }
+    }
 
-    discovery.recover {
-      case ex: Exception => controller.error(ex)
+    def stopWaitingForDevice(): Unit = {
+      maybeDeviceWatch.foreach(deviceWatch => Try(deviceWatch.close()))
+      maybeDeviceWatch = None
     }
 
     def synchronise(
@@ -181,21 +264,39 @@ object DeviceSynchroniserPlus extends JFXApp with StrictLogging {
           controller.finished(count)
         }
       }
-      Services.device.synchronise(
-        synchronisingInformation.rootPath, synchronisingInformation.changesClient, deviceListener) match {
+      val deviceDescriptor: DeviceDescriptor = synchronisingInformation.deviceDescriptor
+      // Without any history, comparing the device with the server is cheaper than replaying every change ever made.
+      val historyLost: Boolean = deviceDescriptor.maybeLastModified.isEmpty && deviceDescriptor.maybeOffset.isEmpty
+      val synchronisation: Either[(Exception, Option[Int]), Int] = if (historyLost) {
+        // Music that the server does not know about could have been put there by the user, so it is never removed here.
+        Services.device.reconcile(
+          synchronisingInformation.rootPath, synchronisingInformation.changesClient, deviceListener, removeUnknownMusic = false)
+      }
+      else {
+        Services.device.synchronise(synchronisingInformation.rootPath, synchronisingInformation.changesClient, deviceListener)
+      }
+      val result: Try[Unit] = synchronisation match {
         case Right(_) => Success({})
         case Left((ex, _)) => Failure(ex)
       }
+      logger.info(s"Download cache: ${synchronisingInformation.changesClient.statistics}")
+      // Remember how far the device got so that prefetching only looks for newer changes.
+      Services.device.reloadDeviceDescriptor(synchronisingInformation.rootPath).foreach(Services.deviceDescriptorStore.save)
+      result
     }
 
     def ui(callback: => Unit): Try[Unit] = Try(Platform.runLater(callback))
 
     def loadSynchronisingInformation(): Try[SynchronisingInformation] = {
       val mediaDirectory: String = Option(System.getenv("MEDIA_DIRECTORY")).getOrElse("/media")
+      val deviceRoot: Path = Paths.get(mediaDirectory, System.getProperty("user.name"))
       for {
         url <- Services.flacManagerDiscovery.discover(Option(System.getenv("FLAC_DEV")).isDefined, 30.seconds)
-        deviceDescriptorAndPath <- Services.deviceDiscoverer.discover(Paths.get(mediaDirectory, System.getProperty("user.name")), 2)
+        deviceDescriptorAndPath <- Services.deviceDiscoverer.discover(deviceRoot, deviceLevels).recoverWith {
+          case ex: Exception => Failure(NoDeviceFoundException(deviceRoot, ex))
+        }
       } yield {
+        Services.deviceDescriptorStore.save(deviceDescriptorAndPath._1)
         SynchronisingInformation(url, deviceDescriptorAndPath._1, deviceDescriptorAndPath._2)
       }
     }
@@ -206,25 +307,41 @@ object DeviceSynchroniserPlus extends JFXApp with StrictLogging {
         changelogSince(deviceDescriptor.user, deviceDescriptor.extension, deviceDescriptor.maybeLastModified).map(_.items)
     }
 
+    def createChangelogItemModelLoader(synchronisingInformation: SynchronisingInformation): ChangelogItemModelLoader = {
+      val changelogItemModelLoader = new ChangelogItemModelLoader(synchronisingInformation.changesClient, Services.artworkStore)
+      maybeChangelogItemModelLoader = Some(changelogItemModelLoader)
+      changelogItemModelLoader
+    }
+
+    /**
+      * Create placeholder models for each changelog item. Their tags and artwork are loaded in the background.
+      * @param changelogItemModelLoader The loader used to populate the models.
+      * @param changelogItems The changelog items to model.
+      * @return A model for each changelog item.
+      */
     def loadChangelogItemModels(
-                                 synchronisingInformation: SynchronisingInformation,
+                                 changelogItemModelLoader: ChangelogItemModelLoader,
                                  changelogItems: Seq[ChangelogItem]): Try[Seq[ChangelogItemModel]] = {
-      def generateModel(changelogItem: ChangelogItem): ChangelogItemModel = {
-        val changesClient: ChangesClient = synchronisingInformation.changesClient
-        val maybeTags: Option[Tags] = changesClient.tags(changelogItem).toOption
-        val maybeArtwork: Option[Array[Byte]] = {
-          val out = new ByteArrayOutputStream()
-          changesClient.artwork(changelogItem, out).map(_ => out.toByteArray).toOption
-        }
-        ChangelogItemModel(changelogItem.at, maybeArtwork, maybeTags, changelogItem.parentRelativePath)
-      }
-
-      Try(changelogItems.map(generateModel))
+      Try(changelogItemModelLoader.load(changelogItems))
     }
 
+    /**
+      * The number of directory levels, including the media directory itself, to search for a device.
+      */
+    val deviceLevels: Int = 2
+
+    /**
+      * An exception thrown when no device could be found.
+      * @param deviceRoot The directory under which devices are mounted.
+      * @param cause The reason no device was found.
+      */
+    case class NoDeviceFoundException(deviceRoot: Path, cause: Exception) extends Exception(cause.getMessage, cause)
+
     case class SynchronisingInformation(serverUrl: URL, deviceDescriptor: DeviceDescriptor, rootPath: Path) {
-      val changesClient: ChangesClient = Services.changesClient(serverUrl)
+      val changesClient: CachingChangesClient = Services.changesClient(serverUrl)
     }
 
+    startDiscovery()
+
   }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.OutputStream
+import java.net.URL
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardCopyOption}
+import java.security.MessageDigest
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.sync.IO
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
+
+/**
+  * A key used to find a download in a [[DownloadCache]].
+  * @param url The URL the data was downloaded from.
+  * @param validator A value, such as an HTTP entity tag, that changes whenever the data at the URL changes.
+  */
+case class DownloadKey(url: URL, validator: String) {
+
+  /**
+    * The name of the file used to hold the data for this key. This is a SHA-256 hash of the URL and validator.
+    */
+  val filename: String = {
+    val digest = MessageDigest.getInstance("SHA-256").digest(s"$url\n$validator".getBytes(StandardCharsets.UTF_8))
+    digest.map(b => f"${b & 0xff}%02x").mkString
+  }
+}
+
+/**
+  * Statistics on how well a [[DownloadCache]] is working.
+  * @param hits The number of downloads served from the cache.
+  * @param misses The number of downloads that had to be fetched from the server.
+  * @param bytesSaved The number of bytes that did not have to be fetched from the server.
+  */
+case class DownloadCacheStatistics(hits: Long, misses: Long, bytesSaved: Long) {
+
+  /**
+    * @return The proportion of downloads that were served from the cache.
+    */
+  def hitRate: Double = if (hits + misses == 0) 0d else hits.toDouble / (hits + misses)
+
+  override def toString: String = f"hits=$hits, misses=$misses, hit rate=${hitRate * 100}%.1f%%, bytes saved=$bytesSaved"
+}
+
+/**
+  * A size-capped, content-addressed cache of downloads on disk. Downloads are written to a temporary file and only
+  * moved into place once they are complete so a failed download can never be served. When the cache grows too
+  * large the least recently used downloads are removed.
+  * @param directory The directory that holds the cached downloads.
+  * @param maxBytes The maximum number of bytes to cache.
+  */
+class DownloadCache(directory: Path, maxBytes: Long) extends StrictLogging {
+
+  private val TEMP_SUFFIX = ".part"
+
+  /**
+    * The size of each cached file, in least recently used order.
+    */
+  private val index: mutable.LinkedHashMap[String, Long] = {
+    val files: Seq[Path] = Try(Files.list(directory).iterator().toList).getOrElse(Nil)
+    val (tempFiles, cachedFiles) = files.partition(_.getFileName.toString.endsWith(TEMP_SUFFIX))
+    // Anything left over from an interrupted download is useless.
+    tempFiles.foreach(file => Try(Files.deleteIfExists(file)))
+    val sortedFiles = cachedFiles.sortBy(file => Files.getLastModifiedTime(file).toMillis)
+    mutable.LinkedHashMap(sortedFiles.map(file => file.getFileName.toString -> Files.size(file)): _*)
+  }
+
+  private var totalBytes: Long = index.values.sum
+
+  private var hits: Long = 0
+
+  private var misses: Long = 0
+
+  private var bytesSaved: Long = 0
+
+  /**
+    * Copy a download into an output stream, either from the cache or by downloading it and caching the result.
+    * @param key The key of the download.
+    * @param download The code used to download the data if it is not cached.
+    * @param out The output stream to copy the data in to.
+    * @return Either [[Unit]] or an exception.
+    */
+  def fetch(key: DownloadKey, download: OutputStream => Try[Unit], out: OutputStream): Try[Unit] = {
+    val cachedFile: Path = directory.resolve(key.filename)
+    val isCached: Boolean = synchronized {
+      index.remove(key.filename) match {
+        case Some(size) if Files.exists(cachedFile) =>
+          // Move the download to the most recently used end.
+          index.put(key.filename, size)
+          true
+        case Some(size) =>
+          totalBytes -= size
+          false
+        case None => false
+      }
+    }
+    if (isCached) {
+      Try(Files.copy(cachedFile, out)) match {
+        case Success(size) =>
+          logger.info(s"Serving ${key.url} from the download cache")
+          synchronized {
+            hits += 1
+            bytesSaved += size
+          }
+          Success({})
+        case Failure(e) =>
+          // Some data may already have been written so the caller has to start again.
+          logger.warn(s"Could not read ${key.url} from the download cache", e)
+          forget(key.filename)
+          Failure(e)
+      }
+    }
+    else {
+      downloadAndCache(key, download, out)
+    }
+  }
+
+  /**
+    * Check whether a download is already cached.
+    * @param key The key of the download.
+    * @return True if the download is cached, false otherwise.
+    */
+  def contains(key: DownloadKey): Boolean = synchronized {
+    index.contains(key.filename)
+  }
+
+  /**
+    * @return The number of bytes that can be cached before older downloads have to be evicted.
+    */
+  def freeBytes: Long = synchronized {
+    math.max(0L, maxBytes - totalBytes)
+  }
+
+  /**
+    * @return The current statistics for this cache.
+    */
+  def statistics: DownloadCacheStatistics = synchronized {
+    DownloadCacheStatistics(hits, misses, bytesSaved)
+  }
+
+  private def downloadAndCache(key: DownloadKey, download: OutputStream => Try[Unit], out: OutputStream): Try[Unit] = {
+    synchronized {
+      misses += 1
+    }
+    val tempFile: Path = Files.createTempFile(directory, key.filename, TEMP_SUFFIX)
+    val result: Try[Unit] = IO.closingTry(Files.newOutputStream(tempFile)) { fileOut =>
+      download(IO.tee(Seq(out, fileOut)))
+    }
+    result match {
+      case Success(_) =>
+        Try {
+          val size: Long = Files.size(tempFile)
+          Files.move(tempFile, directory.resolve(key.filename), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+          install(key.filename, size)
+        }.recover {
+          case e: Exception => logger.warn(s"Could not add ${key.url} to the download cache", e)
+        }
+      case Failure(_) =>
+    }
+    Try(Files.deleteIfExists(tempFile))
+    result
+  }
+
+  private def install(filename: String, size: Long): Unit = synchronized {
+    index.remove(filename).foreach(oldSize => totalBytes -= oldSize)
+    index.put(filename, size)
+    totalBytes += size
+    while (totalBytes > maxBytes && index.nonEmpty) {
+      val (leastRecentlyUsed, _) = index.head
+      forget(leastRecentlyUsed)
+    }
+  }
+
+  private def forget(filename: String): Unit = synchronized {
+    index.remove(filename).foreach(size => totalBytes -= size)
+    Try(Files.deleteIfExists(directory.resolve(filename)))
+  }
+}
+
+/**
+  * Create [[DownloadCache]]s.
+  */
+object DownloadCache {
+
+  /**
+    * Create a download cache in the user's home directory.
+    * @param maxBytes The maximum number of bytes to cache.
+    * @return A new download cache.
+    */
+  def inHomeDirectory(maxBytes: Long): DownloadCache = {
+    val directory = Files.createDirectories(Paths.get(System.getProperty("user.home"), ".device-synchroniser", "downloads"))
+    new DownloadCache(directory, maxBytes)
+  }
+}
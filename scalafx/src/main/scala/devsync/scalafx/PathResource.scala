@@ -17,11 +17,14 @@
 package devsync.scalafx
 
 import java.io.{InputStream, OutputStream}
-import java.nio.file.{FileAlreadyExistsException, Files, Path}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{FileAlreadyExistsException, Files, Path, StandardOpenOption}
 
 import devsync.json.RelativePath
-import devsync.sync.{Resource, ResourceStreamProvider}
+import devsync.sync.{IO, Resource, ResourceStreamProvider}
 
+import scala.collection.JavaConversions._
 import scala.util.Try
 
 /**
@@ -52,6 +55,28 @@ object PathResource {
       Some(newPath).filter(Files.exists(_))
     }
 
+    /**
+      * @inheritdoc
+      */
+    override def children(path: Path): Seq[Path] = {
+      if (Files.isDirectory(path)) IO.closing(Files.list(path))(_.iterator().toList).getOrElse(Nil) else Nil
+    }
+
+    /**
+      * @inheritdoc
+      */
+    override def isDirectory(path: Path): Boolean = Files.isDirectory(path)
+
+    /**
+      * @inheritdoc
+      */
+    override def name(path: Path): String = Option(path.getFileName).map(_.toString).getOrElse("")
+
+    /**
+      * @inheritdoc
+      */
+    override def size(path: Path): Long = Files.size(path)
+
     /**
       * @inheritdoc
       */
@@ -116,7 +141,31 @@ object PathResource {
       * @inheritdoc
       */
     override def provideOutputStream(path: Path): Try[OutputStream] = {
-      Try(Files.newOutputStream(path))
+      Try(new ChunkedFileOutputStream(
+        FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)))
+    }
+
+    /**
+      * @inheritdoc
+      */
+    override def provideMappedBuffer(path: Path): Option[ByteBuffer] = {
+      IO.closing(FileChannel.open(path, StandardOpenOption.READ)) { channel =>
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+      }.toOption
+    }
+
+    /**
+      * @inheritdoc
+      */
+    override def sync(paths: Seq[Path]): Try[Unit] = Try {
+      paths.foreach { path =>
+        IO.closing(FileChannel.open(path, StandardOpenOption.WRITE))(_.force(true)).get
+      }
+      // New directory entries also need to reach the device but not every file system allows directories to be
+      // forced so failures are ignored.
+      paths.flatMap(path => Option(path.getParent)).distinct.foreach { directory =>
+        IO.closing(FileChannel.open(directory, StandardOpenOption.READ))(_.force(true))
+      }
     }
 
   }
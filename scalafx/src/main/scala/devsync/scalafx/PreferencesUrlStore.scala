@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.net.URL
+import java.util.prefs.Preferences
+
+import devsync.discovery.UrlStore
+
+import scala.util.Try
+
+/**
+  * A [[UrlStore]] that uses the user's Java preferences.
+  **/
+class PreferencesUrlStore(preferences: Preferences = Preferences.userNodeForPackage(classOf[PreferencesUrlStore])) extends UrlStore {
+
+  /**
+    * @inheritdoc
+    */
+  override def load(dev: Boolean): Option[URL] = {
+    Option(preferences.get(key(dev), null)).flatMap(url => Try(new URL(url)).toOption)
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def save(dev: Boolean, url: URL): Unit = {
+    preferences.put(key(dev), url.toString)
+    Try(preferences.flush())
+  }
+
+  private def key(dev: Boolean): String = if (dev) "devServerUrl" else "serverUrl"
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.scalafx
+
+import java.io.Closeable
+import java.net.URL
+import java.util.concurrent.{ExecutorService, Executors, ScheduledExecutorService, ThreadFactory, TimeUnit}
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.json._
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.FiniteDuration
+import scala.util.{Failure, Success, Try}
+
+/**
+  * Periodically downloads the music that remembered devices still need into the [[DownloadCache]] so that, when a
+  * device is connected, synchronising it is just a copy from the local disk.
+  * @param discover The code used to find the Flac Manager server, given an execution context to run it in.
+  * @param changesClientFor A function that creates a [[CachingChangesClient]] for a server URL.
+  * @param deviceDescriptorStore The store of devices whose music should be prefetched.
+  * @param interval How long to wait between looking for new changes.
+  */
+class Prefetcher(
+                  discover: ExecutionContext => Try[URL],
+                  changesClientFor: URL => CachingChangesClient,
+                  deviceDescriptorStore: DeviceDescriptorStore,
+                  interval: FiniteDuration) extends StrictLogging {
+
+  /**
+    * Start prefetching in a background thread.
+    * @return A [[Closeable]] that stops prefetching.
+    */
+  def start(): Closeable = {
+    val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor(lowPriorityThreads("prefetcher"))
+    scheduler.scheduleWithFixedDelay(new Runnable {
+      override def run(): Unit = {
+        prefetchAll() match {
+          case Success(count) => logger.info(s"Prefetched $count tracks")
+          case Failure(e) => logger.warn("Prefetching failed", e)
+        }
+      }
+    }, interval.toMillis, interval.toMillis, TimeUnit.MILLISECONDS)
+    new Closeable {
+      override def close(): Unit = {
+        scheduler.shutdownNow()
+        discoveryExecutor.shutdownNow()
+      }
+    }
+  }
+
+  private def lowPriorityThreads(name: String): ThreadFactory = new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, name)
+      thread.setDaemon(true)
+      thread.setPriority(Thread.MIN_PRIORITY)
+      thread
+    }
+  }
+
+  /**
+    * The executor used whilst looking for the Flac Manager server. It belongs to the prefetcher so that
+    * prefetching never competes with the rest of the application for threads.
+    */
+  private val discoveryExecutor: ExecutorService = Executors.newSingleThreadExecutor(lowPriorityThreads("prefetcher-discovery"))
+
+  private val discoveryContext: ExecutionContext = ExecutionContext.fromExecutorService(discoveryExecutor)
+
+  /**
+    * Prefetch the music needed by all remembered devices.
+    * @return Either the number of tracks downloaded or an exception.
+    */
+  def prefetchAll(): Try[Int] = {
+    for {
+      url <- discover(discoveryContext)
+      changesClient = changesClientFor(url)
+      counts <- Try(deviceDescriptorStore.load().map(prefetch(changesClient, _)))
+    } yield counts.sum
+  }
+
+  /**
+    * Prefetch the music needed by one device. Tracks that cannot be downloaded are skipped as they will be tried
+    * again when the device is synchronised.
+    * @param changesClient The client used to find and download changes.
+    * @param deviceDescriptor The device whose music should be prefetched.
+    * @return The number of tracks downloaded.
+    */
+  def prefetch(changesClient: CachingChangesClient, deviceDescriptor: DeviceDescriptor): Int = {
+    changesClient.changesSince(deviceDescriptor.user, deviceDescriptor.extension, deviceDescriptor.maybeLastModified) match {
+      case Success(changes) =>
+        val neededEntries: Seq[ManifestEntry] = Manifest(changes.changes).entries
+        // Check before each download so that stopping interrupts a pass part way through. Only the cache's free
+        // space is used as filling it further would just evict the tracks downloaded earlier in the pass.
+        neededEntries.iterator.takeWhile { entry =>
+          !Thread.currentThread().isInterrupted && changesClient.freeBytes > entry.maybeSize.getOrElse(0L)
+        }.count { entry =>
+          changesClient.prefetch(entry.addition).getOrElse(false)
+        }
+      case Failure(e) =>
+        logger.warn(s"Could not find changes for ${deviceDescriptor.user}", e)
+        0
+    }
+  }
+}
@@ -19,13 +19,15 @@ package devsync.scalafx
 import java.net.URL
 import java.nio.file.Path
 
-import devsync.discovery.{ClingFlacManagerDiscovery, FlacManagerDiscovery}
+import devsync.discovery.{CachingFlacManagerDiscovery, FlacManagerDiscovery, RegistryFlacManagerDiscovery}
 import devsync.json._
 import devsync.remote.{ChangesClient, ChangesClientImpl}
 import devsync.sync._
 import org.fourthline.cling.DefaultUpnpServiceConfiguration
 import org.threeten.bp.Clock
 
+import scala.concurrent.duration._
+
 /**
   * Services used throughout device synchronisation.
   **/
@@ -42,14 +44,46 @@ object Services {
   val clock: Clock = Clock.systemDefaultZone()
 
   /**
-    * The default [[FlacManagerDiscovery]] to use.
+    * The [[RegistryFlacManagerDiscovery]] that keeps track of servers on the network.
+    */
+  val registryFlacManagerDiscovery: RegistryFlacManagerDiscovery =
+    new RegistryFlacManagerDiscovery(new DefaultUpnpServiceConfiguration())
+
+  /**
+    * The default [[FlacManagerDiscovery]] to use. This first tries the URL a server was last found at.
     */
-  val flacManagerDiscovery: FlacManagerDiscovery = new ClingFlacManagerDiscovery(new DefaultUpnpServiceConfiguration())
+  val flacManagerDiscovery: FlacManagerDiscovery =
+    new CachingFlacManagerDiscovery(registryFlacManagerDiscovery, new PreferencesUrlStore())
+
+  /**
+    * The [[DurabilityPolicy]] to use, which can be set to fast, balanced or safe with the DURABILITY environment
+    * variable.
+    */
+  lazy val durabilityPolicy: DurabilityPolicy =
+    Option(System.getenv("DURABILITY")).flatMap(DurabilityPolicy.named).getOrElse(DurabilityPolicy.balanced)
+
+  /**
+    * The albums, or artists, to synchronise first, which can be set as a semicolon separated list of relative paths
+    * with the PRIORITY_ALBUMS environment variable. Otherwise the most recently changed albums are synchronised
+    * first.
+    */
+  lazy val changeScheduler: ChangeScheduler = {
+    val priorities: Seq[RelativePath] =
+      Option(System.getenv("PRIORITY_ALBUMS")).toSeq.flatMap(_.split(';')).map(_.trim).filterNot(_.isEmpty).map(RelativePath(_))
+    ChangeScheduler.albumPriority(priorities)
+  }
 
   /**
     * The default [[Device]] to use.
     */
-  val device: Device[Path] = new DeviceImpl[Path](jsonCodec, clock, NoOpFaultTolerance)
+  val device: Device[Path] =
+    new DeviceImpl[Path](
+      jsonCodec,
+      clock,
+      NoOpFaultTolerance,
+      changeScheduler = changeScheduler,
+      durabilityPolicy = durabilityPolicy,
+      useDeviceIndex = true)
 
   /**
     * The default [[DeviceDiscoverer]] to use.
@@ -59,8 +93,33 @@ object Services {
   /**
     * Create a [[ChangesClient]].
     * @param url The URL of the Flac Manager server.
-    * @return A new [[ChangesClient]] that looks for changes at the given URL.
+    * @return A new [[ChangesClient]] that looks for changes at the given URL and caches downloaded music.
+    */
+  def changesClient(url: URL): CachingChangesClient =
+    new CachingChangesClient(new ChangesClientImpl(jsonCodec, url), downloadCache)
+
+  /**
+    * The [[DownloadCache]] used to keep a copy of downloaded music.
+    */
+  lazy val downloadCache: DownloadCache = DownloadCache.inHomeDirectory(4L * 1024 * 1024 * 1024) // 4 GiB
+
+  /**
+    * The [[DeviceDescriptorStore]] used to remember devices that have been synchronised.
+    */
+  lazy val deviceDescriptorStore: DeviceDescriptorStore = new DeviceDescriptorStore(jsonCodec)
+
+  /**
+    * The [[Prefetcher]] used to download music for remembered devices before they are connected.
+    */
+  lazy val prefetcher: Prefetcher = new Prefetcher(
+    ec => flacManagerDiscovery.discover(Option(System.getenv("FLAC_DEV")).isDefined, 30.seconds)(ec),
+    changesClient,
+    deviceDescriptorStore,
+    15.minutes)
+
+  /**
+    * The [[ArtworkStore]] used to hold album artwork for the changelog.
     */
-  def changesClient(url: URL): ChangesClient = new ChangesClientImpl(jsonCodec, url)
+  lazy val artworkStore: ArtworkStore = ArtworkStore.temporary(16 * 1024 * 1024) // 16 MiB
 
 }
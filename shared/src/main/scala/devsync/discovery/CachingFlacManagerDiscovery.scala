@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.discovery
+
+import java.io.IOException
+import java.net.{HttpURLConnection, URL}
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
+
+import com.typesafe.scalalogging.StrictLogging
+import devsync.json.RelativePath
+import devsync.json.RelativePath._
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
+import scala.util.{Failure, Try}
+
+/**
+  * An instance of [[FlacManagerDiscovery]] that remembers where a server was last found. Whilst another
+  * [[FlacManagerDiscovery]] searches the network, the remembered URL is probed directly and whichever succeeds
+  * first wins. If the server has not moved this is usually much faster than waiting for a search to complete.
+  * @param flacManagerDiscovery The [[FlacManagerDiscovery]] used to search the network.
+  * @param urlStore The [[UrlStore]] used to remember where a server was last found.
+  * @param probe A function that checks whether a Flac Manager server is still available at a URL.
+  **/
+class CachingFlacManagerDiscovery(
+                                   flacManagerDiscovery: FlacManagerDiscovery,
+                                   urlStore: UrlStore,
+                                   probe: URL => Boolean = CachingFlacManagerDiscovery.httpProbe(2.seconds))
+  extends FlacManagerDiscovery with StrictLogging {
+
+  /**
+    * @inheritdoc
+    */
+  override def discover(dev: Boolean, timeout: Duration)(implicit ec: ExecutionContext): Try[URL] = {
+    val urlPromise: Promise[URL] = Promise()
+    // Searching blocks for up to the whole timeout so it gets a thread of its own that can be interrupted once
+    // a server has been found, rather than holding on to one of the execution context's threads.
+    val searchExecutor: ExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory {
+      override def newThread(r: Runnable): Thread = {
+        val thread = new Thread(r, "flac-manager-search")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+    val searchFuture: Future[URL] = Future {
+      try {
+        flacManagerDiscovery.discover(dev, timeout)
+      }
+      catch {
+        case e: InterruptedException => Failure(e)
+      }
+    }(ExecutionContext.fromExecutorService(searchExecutor)).flatMap(Future.fromTry)
+    val probeFuture: Future[URL] = urlStore.load(dev) match {
+      case Some(url) => Future {
+        logger.info(s"Probing previously found server at $url")
+        if (probe(url)) url else throw new IOException(s"No server was found at $url")
+      }
+      case None => Future.failed(new NoSuchElementException("A server has not been found before"))
+    }
+    searchFuture.foreach { url =>
+      urlStore.save(dev, url)
+      if (urlPromise.trySuccess(url)) logger.info(s"Found server at $url by searching")
+    }
+    probeFuture.foreach { url =>
+      if (urlPromise.trySuccess(url)) logger.info(s"Found server at previously found url $url")
+    }
+    // Only fail once both the search and the probe have failed.
+    searchFuture.failed.zip(probeFuture.failed).foreach {
+      case (e, _) => urlPromise.tryFailure(e)
+    }
+    try {
+      Try(Await.result(urlPromise.future, timeout))
+    }
+    finally {
+      searchExecutor.shutdownNow()
+    }
+  }
+}
+
+/**
+  * Used to create the default probe.
+  */
+object CachingFlacManagerDiscovery {
+
+  /**
+    * The path, relative to a server's URL, that is requested to check that a Flac Manager server is there. This
+    * asks for a single change for a user that does not exist so it is cheap for the server to answer.
+    */
+  val PROBE_PATH: RelativePath = RelativePath(Seq("changes", "probe", "mp3", "1970-01-01T00:00:00Z", "0", "1"))
+
+  /**
+    * Create a probe that checks whether a Flac Manager server responds at a URL.
+    * @param timeout The time to wait to connect to and then hear from the server.
+    * @return A function that returns true if the server successfully returned a page of changes as JSON, false
+    *         otherwise.
+    */
+  def httpProbe(timeout: Duration): URL => Boolean = url => Try {
+    val conn = (url / PROBE_PATH).openConnection().asInstanceOf[HttpURLConnection]
+    conn.setConnectTimeout(timeout.toMillis.toInt)
+    conn.setReadTimeout(timeout.toMillis.toInt)
+    conn.addRequestProperty("Cache-Control", "no-cache")
+    conn.addRequestProperty("Accept", "application/json")
+    try {
+      val responseCode: Int = conn.getResponseCode
+      val isJson: Boolean = Option(conn.getContentType).exists(_.toLowerCase.startsWith("application/json"))
+      responseCode >= 200 && responseCode < 300 && isJson
+    }
+    finally {
+      conn.disconnect()
+    }
+  }.getOrElse(false)
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.discovery
+
+import java.net.URL
+import java.util.concurrent.Executor
+
+import com.typesafe.scalalogging.StrictLogging
+import org.fourthline.cling.model.message.header.UDADeviceTypeHeader
+import org.fourthline.cling.model.meta.RemoteDevice
+import org.fourthline.cling.model.types.{UDADeviceType, UDAServiceId, UDN}
+import org.fourthline.cling.registry.{DefaultRegistryListener, Registry}
+import org.fourthline.cling.{UpnpService, UpnpServiceConfiguration, UpnpServiceImpl}
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Promise}
+import scala.util.{Success, Try}
+
+/**
+  * An instance of [[FlacManagerDiscovery]] that uses a single, long lived [[https://github.com/4thline/cling Cling]]
+  * service. Flac Manager servers that announce themselves are remembered, along with their URLs, so that
+  * discovery can return immediately. The network is only actively searched when no server is known.
+  * @param upnpServiceConfiguration The [[UpnpServiceConfiguration]] to use. This is different for Android and desktop.
+  **/
+class RegistryFlacManagerDiscovery(upnpServiceConfiguration: UpnpServiceConfiguration) extends FlacManagerDiscovery with StrictLogging {
+
+  /**
+    * An execution context used to react to URLs being returned by servers. The reactions are quick so they are
+    * run on the calling thread.
+    */
+  private implicit val callingThreadExecutionContext: ExecutionContext = ExecutionContext.fromExecutor(new Executor {
+    override def execute(command: Runnable): Unit = command.run()
+  })
+
+  private case class ServiceType(dev: Boolean) {
+    val identifier: String = "FlacManagerService" + (if (dev) "Dev" else "")
+    val deviceType: UDADeviceType = new UDADeviceType(identifier)
+    val serviceId: UDAServiceId = new UDAServiceId(identifier)
+  }
+
+  private val serviceTypes: Seq[ServiceType] = Seq(ServiceType(dev = false), ServiceType(dev = true))
+
+  /**
+    * The URLs of known servers and whether they are development servers.
+    */
+  private val urlsByDevice: TrieMap[UDN, (Boolean, URL)] = TrieMap.empty
+
+  /**
+    * Promises for discoveries waiting for a server to be found.
+    */
+  private val waitingPromises: TrieMap[Promise[URL], Boolean] = TrieMap.empty
+
+  @volatile private var maybeUpnpService: Option[UpnpService] = None
+
+  private val registryListener = new DefaultRegistryListener {
+    override def remoteDeviceAdded(registry: Registry, device: RemoteDevice): Unit = execute(device)
+    override def remoteDeviceUpdated(registry: Registry, device: RemoteDevice): Unit = execute(device)
+    override def remoteDeviceRemoved(registry: Registry, device: RemoteDevice): Unit = {
+      urlsByDevice.remove(device.getIdentity.getUdn).foreach { case (_, url) =>
+        logger.info(s"Flac Manager server at $url has gone away")
+      }
+    }
+    def execute(device: RemoteDevice): Unit = {
+      val udn: UDN = device.getIdentity.getUdn
+      for {
+        serviceType <- serviceTypes if !urlsByDevice.contains(udn)
+        service <- Option(device.findService(serviceType.serviceId))
+        upnpService <- maybeUpnpService
+      } {
+        val urlPromise: Promise[URL] = Promise()
+        ServerDetailsHelper.executeGetter(upnpService.getControlPoint, service, "Url", urlPromise, new URL(_))
+        urlPromise.future.foreach(url => found(udn, serviceType.dev, url))
+      }
+    }
+  }
+
+  private def found(udn: UDN, dev: Boolean, url: URL): Unit = {
+    logger.info(s"Found Flac Manager server at $url")
+    urlsByDevice.put(udn, (dev, url))
+    waitingPromises.foreach {
+      case (promise, promiseDev) if promiseDev == dev => promise.trySuccess(url)
+      case _ =>
+    }
+  }
+
+  private def knownUrl(dev: Boolean): Option[URL] = urlsByDevice.values.collectFirst {
+    case (urlDev, url) if urlDev == dev => url
+  }
+
+  /**
+    * Get the Cling service, starting it if it has not already been started.
+    * @return The running Cling service.
+    */
+  private def upnpService(): UpnpService = synchronized {
+    maybeUpnpService.getOrElse {
+      val upnpService = new UpnpServiceImpl(upnpServiceConfiguration)
+      maybeUpnpService = Some(upnpService)
+      upnpService.getRegistry.addListener(registryListener)
+      upnpService
+    }
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def discover(dev: Boolean, timeout: Duration)(implicit ec: ExecutionContext): Try[URL] = {
+    val service: UpnpService = upnpService()
+    knownUrl(dev) match {
+      case Some(url) => Success(url)
+      case None =>
+        val urlPromise: Promise[URL] = Promise()
+        waitingPromises.put(urlPromise, dev)
+        // A server may have been found whilst the promise was being registered.
+        knownUrl(dev).foreach(urlPromise.trySuccess)
+        service.getControlPoint.search(new UDADeviceTypeHeader(ServiceType(dev).deviceType))
+        try {
+          Try(Await.result(urlPromise.future, timeout))
+        }
+        finally {
+          waitingPromises.remove(urlPromise)
+        }
+    }
+  }
+
+  /**
+    * Stop the Cling service if it is running. It will be restarted if discovery is needed again.
+    */
+  def shutdown(): Unit = synchronized {
+    maybeUpnpService.foreach { upnpService =>
+      Try(upnpService.shutdown())
+    }
+    maybeUpnpService = None
+    urlsByDevice.clear()
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.discovery
+
+import java.net.URL
+
+/**
+  * A trait for classes that remember the last URL a Flac Manager server was found at.
+  **/
+trait UrlStore {
+
+  /**
+    * Load the last known URL of a Flac Manager server.
+    * @param dev True if looking for a development server, false otherwise.
+    * @return The last URL a server was found at or none if a server has never been found.
+    */
+  def load(dev: Boolean): Option[URL]
+
+  /**
+    * Remember the URL of a Flac Manager server.
+    * @param dev True if the server is a development server, false otherwise.
+    * @param url The URL of the server.
+    */
+  def save(dev: Boolean, url: URL): Unit
+}
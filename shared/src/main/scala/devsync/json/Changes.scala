@@ -26,6 +26,14 @@ import org.threeten.bp.Instant
   **/
 case class Changes(changes: Seq[Change])
 
+/**
+  * A page of the changes that need to be made to a device.
+  *
+  * @param changes The changes in this page.
+  * @param total The total number of changes in all pages.
+  **/
+case class ChangesPage(changes: Seq[Change], total: Int)
+
 /**
   * A single change that can be either an addition or removal of a music track.
   */
@@ -111,6 +111,11 @@ class CirceCodec extends JsonCodec {
     */
   implicit val decodeChanges: Decoder[Changes] = Decoder.forProduct1("changes")(Changes.apply)
 
+  /**
+    * A decoder for [[ChangesPage]]s.
+    */
+  implicit val decodeChangesPage: Decoder[ChangesPage] = Decoder.forProduct2("changes", "total")(ChangesPage.apply)
+
   /**
     * A decoder for [[Tags]].
     */
@@ -135,6 +140,11 @@ class CirceCodec extends JsonCodec {
     */
   override def parseChanges(json: String): Try[Changes] = parse[Changes](json)
 
+  /**
+    * @inheritdoc
+    */
+  override def parseChangesPage(json: String): Try[ChangesPage] = parse[ChangesPage](json)
+
   /**
     * @inheritdoc
     */
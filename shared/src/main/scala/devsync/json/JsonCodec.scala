@@ -37,6 +37,13 @@ trait JsonCodec {
     */
   def parseChanges(json: String): Try[Changes]
 
+  /**
+    * Parse a [[ChangesPage]].
+    * @param json The JSON to parse.
+    * @return A new [[ChangesPage]] or an error.
+    */
+  def parseChangesPage(json: String): Try[ChangesPage]
+
   /**
     * Parse [[Tags]].
     * @param json The JSON to parse.
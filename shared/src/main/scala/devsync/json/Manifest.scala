@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.json
+
+/**
+  * Every track that should be on a device, according to the Flac Manager server.
+  * @param entries The tracks that should be on a device.
+  */
+case class Manifest(entries: Seq[ManifestEntry])
+
+/**
+  * A track that should be on a device.
+  * @param addition The [[Addition]] that put the track on the device.
+  * @param maybeSize The size of the track in bytes, if known.
+  */
+case class ManifestEntry(addition: Addition, maybeSize: Option[Long] = None)
+
+/**
+  * Create [[Manifest]]s.
+  */
+object Manifest {
+
+  /**
+    * Create a manifest from a history of changes by keeping every addition that is not later removed or replaced.
+    * @param changes The changes, in the order they were made.
+    * @return A manifest of the tracks that remain once all the changes have been made.
+    */
+  def apply(changes: Seq[Change]): Manifest = {
+    val lastChangeByPath: Map[RelativePath, Change] = changes.map(change => change.relativePath -> change).toMap
+    val additions: Seq[Addition] = changes.collect {
+      case addition: Addition if lastChangeByPath.get(addition.relativePath).contains(addition) => addition
+    }
+    Manifest(additions.map(addition => ManifestEntry(addition)))
+  }
+}
@@ -21,7 +21,8 @@ import java.io.OutputStream
 import devsync.json._
 import org.threeten.bp.Instant
 
-import scala.util.Try
+import scala.annotation.tailrec
+import scala.util.{Failure, Success, Try}
 
 /**
   * A trait that can be used to find [[Changes]] and [[Changelog]]s from a Flac Manager server.
@@ -37,6 +38,48 @@ trait ChangesClient {
     */
   def changesSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changes]
 
+  /**
+    * Get a page of the changes for a user since a specific date. By default the page is cut from all the changes
+    * but implementations that can ask a server for a single page should do so.
+    * @param user The user to search for.
+    * @param extension The type of files on this device.
+    * @param maybeSince The earliest time for changes or none for all changes.
+    * @param page The zero based number of the page to get.
+    * @param pageSize The number of changes in each page.
+    * @return Either a [[ChangesPage]] object from the server or an exception.
+    */
+  def changesSince(user: String, extension: Extension, maybeSince: Option[Instant], page: Int, pageSize: Int): Try[ChangesPage] = {
+    changesSince(user, extension, maybeSince).map { changes =>
+      ChangesPage(changes.changes.slice(page * pageSize, (page + 1) * pageSize), changes.changes.size)
+    }
+  }
+
+  /**
+    * Get a [[Manifest]] of every track that should be on a device. By default this is built from all the changes
+    * ever made, downloaded a page at a time, but implementations that can ask a server for a manifest, along with
+    * the size of each track, should do so.
+    * @param user The user to search for.
+    * @param extension The type of files on this device.
+    * @return Either a [[Manifest]] or an exception.
+    */
+  def manifest(user: String, extension: Extension): Try[Manifest] = {
+    @tailrec
+    def loadChanges(page: Int, changes: Vector[Change]): Try[Vector[Change]] = {
+      changesSince(user, extension, None, page, ChangesClient.MANIFEST_PAGE_SIZE) match {
+        case Success(changesPage) =>
+          val allChanges: Vector[Change] = changes ++ changesPage.changes
+          if (changesPage.changes.isEmpty || allChanges.size >= changesPage.total) {
+            Success(allChanges)
+          }
+          else {
+            loadChanges(page + 1, allChanges)
+          }
+        case Failure(e) => Failure(e)
+      }
+    }
+    loadChanges(0, Vector.empty).map(changes => Manifest(changes))
+  }
+
   /**
     * Get the changelog for a user since a specific date..
     * @param user The user to search for.
@@ -69,3 +112,14 @@ trait ChangesClient {
     */
   def artwork(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit]
 }
+
+/**
+  * Constants for [[ChangesClient]]s.
+  */
+object ChangesClient {
+
+  /**
+    * The number of changes in each page downloaded when building a default [[Manifest]].
+    */
+  val MANIFEST_PAGE_SIZE: Int = 500
+}
@@ -18,6 +18,7 @@ package devsync.remote
 
 import java.io.{ByteArrayOutputStream, OutputStream}
 import java.net.{HttpURLConnection, URL}
+import java.security.{DigestOutputStream, MessageDigest}
 
 import devsync.json.RelativePath._
 import devsync.json.{RelativePath, _}
@@ -49,6 +50,16 @@ class ChangesClientImpl(val jsonCodec: JsonCodec, val baseUrl: URL) extends Chan
     readUrl(_.parseChanges, "changes" / user / extension.extension / since).error(s"Could not download changes since $since")
   }
 
+  /**
+    * @inheritdoc
+    */
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant], page: Int, pageSize: Int): Try[ChangesPage] = {
+    val since: Instant = orDatum(maybeSince)
+    logger.info(s"Looking for page $page of changes since $since")
+    readUrl(_.parseChangesPage, "changes" / user / extension.extension / since / page.toString / pageSize.toString).
+      error(s"Could not download page $page of changes since $since")
+  }
+
   /**
     * @inheritdoc
     */
@@ -81,7 +92,8 @@ class ChangesClientImpl(val jsonCodec: JsonCodec, val baseUrl: URL) extends Chan
   }
 
   /**
-    * Copy a URL into an output stream.
+    * Copy a URL into an output stream. If the server sends a `Content-MD5` header then the MD5 checksum of the data
+    * is calculated as it is copied and a [[ChecksumMismatchException]] is returned if they do not match.
     * @param url The URL to load.
     * @param out The output stream to copy the URL's data in to.
     * @param useCache True if the call to the URL should be cached, false otherwise.
@@ -94,7 +106,21 @@ class ChangesClientImpl(val jsonCodec: JsonCodec, val baseUrl: URL) extends Chan
       conn.addRequestProperty("Cache-Control", "no-cache")
     }
     IO.closing(conn.getInputStream, conn.disconnect()) { in =>
-      IO.copy(in, out)
+      val contentLength: Int = conn.getContentLength
+      if (contentLength >= 0) {
+        IO.expectSize(out, contentLength)
+      }
+      Option(conn.getHeaderField("Content-MD5")) match {
+        case Some(expectedChecksum) =>
+          val digestOut = new DigestOutputStream(out, MessageDigest.getInstance("MD5"))
+          IO.copy(in, digestOut)
+          val actualChecksum: String = ChangesClientImpl.base64(digestOut.getMessageDigest.digest())
+          if (actualChecksum != expectedChecksum.trim) {
+            throw ChecksumMismatchException(url, expectedChecksum, actualChecksum)
+          }
+        case None =>
+          IO.copy(in, out)
+      }
     }
   }
 
@@ -138,3 +164,26 @@ class ChangesClientImpl(val jsonCodec: JsonCodec, val baseUrl: URL) extends Chan
     loadUrl(urlExtractor(item.links), out)
   }
 }
+
+/**
+  * Helpers for [[ChangesClientImpl]]s.
+  */
+object ChangesClientImpl {
+
+  private val BASE64_ALPHABET: String = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+
+  /**
+    * Encode bytes as base 64, as used by the `Content-MD5` header. This is done by hand as `java.util.Base64` is
+    * not available on older versions of Android.
+    * @param bytes The bytes to encode.
+    * @return The base 64 encoding of the bytes.
+    */
+  def base64(bytes: Array[Byte]): String = {
+    bytes.grouped(3).map { group =>
+      val padding: Int = 3 - group.length
+      val triple: Int = group.padTo(3, 0.toByte).foldLeft(0)((acc, b) => (acc << 8) | (b & 0xff))
+      val chars: Seq[Char] = Seq(18, 12, 6, 0).map(shift => BASE64_ALPHABET.charAt((triple >> shift) & 0x3f))
+      chars.take(4 - padding).mkString + "=" * padding
+    }.mkString
+  }
+}
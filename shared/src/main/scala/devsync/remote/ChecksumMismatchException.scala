@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.remote
+
+import java.io.IOException
+import java.net.URL
+
+/**
+  * An exception thrown when the data downloaded from a URL does not match the checksum the server sent with it.
+  * @param url The URL that was downloaded.
+  * @param expected The checksum sent by the server.
+  * @param actual The checksum of the data that was received.
+  */
+case class ChecksumMismatchException(url: URL, expected: String, actual: String) extends
+  IOException(s"The data downloaded from $url has checksum $actual but $expected was expected")
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import devsync.json.{Change, RelativePath, Removal}
+
+/**
+  * Decide the order in which a page of [[Change]]s is applied to a device.
+  */
+trait ChangeScheduler {
+
+  /**
+    * Order a page of changes.
+    * @param changes The changes, along with their indices, in the order they were made on the server.
+    * @return The changes, along with their indices, in the order they should be applied.
+    */
+  def schedule(changes: Seq[(Change, Int)]): Seq[(Change, Int)]
+}
+
+/**
+  * The available [[ChangeScheduler]]s.
+  */
+object ChangeScheduler {
+
+  /**
+    * Apply changes in the order they were made on the server.
+    */
+  val timestampOrder: ChangeScheduler = new ChangeScheduler {
+    override def schedule(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = changes
+  }
+
+  /**
+    * Apply changes so that slow flash storage spends as little time as possible moving between directories. Only
+    * the last change to each track is kept, all removals are applied before any additions so that space is freed
+    * first and then changes are grouped by album so that each directory is visited once.
+    */
+  val directoryLocality: ChangeScheduler = new ChangeScheduler {
+    override def schedule(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = {
+      val (removals, additions) = latestChanges(changes).partition(_._1.isInstanceOf[Removal])
+      byAlbum(removals) ++ byAlbum(additions)
+    }
+  }
+
+  /**
+    * Apply changes so that whole albums become playable as soon as possible. Like [[directoryLocality]], only the
+    * last change to each track is kept and all removals are applied first. Additions are then applied an album at a
+    * time: albums under one of the given priorities first, in the order of the priorities, and then the most
+    * recently changed albums first.
+    * @param priorities The albums, or artists, to add first. An album is a priority if its relative path starts with
+    *                   one of these.
+    * @return A scheduler that completes one album at a time.
+    */
+  def albumPriority(priorities: Seq[RelativePath]): ChangeScheduler = new ChangeScheduler {
+    override def schedule(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = {
+      val (removals, additions) = latestChanges(changes).partition(_._1.isInstanceOf[Removal])
+      byAlbum(removals) ++ byPriority(additions)
+    }
+
+    private def byPriority(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = {
+      // groupBy keeps tracks within an album in the order they were changed.
+      val albums: Seq[(Option[RelativePath], Seq[(Change, Int)])] =
+        changes.groupBy { case (change, _) => change.relativePath.maybeParent }.toSeq
+      albums.sortBy { case (maybeAlbum, albumChanges) =>
+        val newest: (Change, Int) = albumChanges.maxBy { case (change, idx) => (change.at.toEpochMilli, idx) }
+        (priorityOf(maybeAlbum), -newest._1.at.toEpochMilli, -newest._2)
+      }.flatMap(_._2)
+    }
+
+    private def priorityOf(maybeAlbum: Option[RelativePath]): Int = {
+      val priority: Int = priorities.indexWhere { prioritisedPath =>
+        maybeAlbum.exists(_.pathSegments.startsWith(prioritisedPath.pathSegments))
+      }
+      if (priority < 0) priorities.size else priority
+    }
+  }
+
+  /**
+    * Apply changes a whole album at a time, most recently changed album first.
+    */
+  val newestAlbumFirst: ChangeScheduler = albumPriority(Seq.empty)
+
+  /**
+    * Only keep the last change made to each track.
+    */
+  private def latestChanges(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = {
+    val lastIndexByPath: Map[RelativePath, Int] =
+      changes.map { case (change, idx) => change.relativePath -> idx }.toMap
+    changes.filter { case (change, idx) =>
+      lastIndexByPath.get(change.relativePath).contains(idx)
+    }
+  }
+
+  private def byAlbum(changes: Seq[(Change, Int)]): Seq[(Change, Int)] = {
+    // sortBy is stable so tracks within an album stay in the order they were changed.
+    changes.sortBy { case (change, _) => change.relativePath.maybeParent.map(_.toString).getOrElse("") }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.io.{FilterOutputStream, OutputStream}
+
+/**
+  * An output stream that counts how many bytes have been written through it.
+  * @param out The output stream to write to.
+  */
+class CountingOutputStream(out: OutputStream) extends FilterOutputStream(out) with SizeHint {
+
+  /**
+    * The number of bytes written so far.
+    */
+  var count: Long = 0
+
+  /**
+    * @inheritdoc
+    */
+  override def expectSize(size: Long): Unit = IO.expectSize(out, size)
+
+  override def write(b: Int): Unit = {
+    out.write(b)
+    count += 1
+  }
+
+  override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+    out.write(b, off, len)
+    count += len
+  }
+}
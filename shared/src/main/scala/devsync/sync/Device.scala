@@ -16,7 +16,7 @@
 
 package devsync.sync
 
-import devsync.json.{Addition, DeviceDescriptor, Removal, Tags}
+import devsync.json.{Addition, DeviceDescriptor, RelativePath, Removal, Tags}
 import devsync.remote.ChangesClient
 
 import scala.concurrent.ExecutionContext
@@ -49,6 +49,46 @@ trait Device[R] {
                                                       resourceStreamProvider: ResourceStreamProvider[R],
                                                       ec: ExecutionContext): Either[(Exception, Option[Int]), Int]
 
+  /**
+    * Reconcile a device whose synchronisation history has been lost, or that has had music copied on to it by hand,
+    * with the Flac Manager server. The music on the device is compared with a [[devsync.json.Manifest]] from the
+    * server and only the differences are downloaded or removed.
+    * @param root The root file of the device.
+    * @param changesClient The [[ChangesClient]] used to get the manifest and music from the Flac Manager server.
+    * @param deviceListener A [[DeviceListener]] used to report on progress and errors.
+    * @param removeUnknownMusic True if music files that are not in the manifest should be removed. This should only
+    *                           be the case when a user has explicitly asked for it. Otherwise, unknown music is
+    *                           left alone and reported to the device listener.
+    * @param resource A typeclass with file-like properties.
+    * @param resourceStreamProvider A typeclass used to get a stream of data from a resource.
+    * @param ec An execution context used to scan the device in parallel.
+    * @return Either the number of changes made or an exception with an optional index if a specific change failed.
+    */
+  def reconcile(
+                 root: R,
+                 changesClient: ChangesClient,
+                 deviceListener: DeviceListener[R],
+                 removeUnknownMusic: Boolean)(implicit resource: Resource[R],
+                                              resourceStreamProvider: ResourceStreamProvider[R],
+                                              ec: ExecutionContext): Either[(Exception, Option[Int]), Int]
+
+  /**
+    * Synchronise several devices at once. The changes needed by all devices are merged so that each track is
+    * only downloaded once and then written to every device that needs it.
+    * @param targets The devices to synchronise.
+    * @param changesClient The [[ChangesClient]] used to get changes from the Flac Manager server.
+    * @param resource A typeclass with file-like properties.
+    * @param resourceStreamProvider A typeclass used to get a stream of data from a resource.
+    * @param ec An execution context for running synchronisation in another thread.
+    * @return For each target, in order, either the number of changes synchronised or an exception with an
+    *         optional index if a specific change failed.
+    */
+  def synchroniseAll(
+                      targets: Seq[SynchronisationTarget[R]],
+                      changesClient: ChangesClient)(implicit resource: Resource[R],
+                                                    resourceStreamProvider: ResourceStreamProvider[R],
+                                                    ec: ExecutionContext): Seq[Either[(Exception, Option[Int]), Int]]
+
   /**
     * Find a [[DeviceDescriptor]] for this device.
     * @param roots A list of root directories to search.
@@ -73,6 +113,15 @@ trait Device[R] {
                              resourceStreamProvider: ResourceStreamProvider[R]): Try[DeviceDescriptor]
 }
 
+/**
+  * A device to be synchronised alongside others.
+  * @param root The root file of the device.
+  * @param deviceDescriptor The device's [[DeviceDescriptor]].
+  * @param deviceListener A [[DeviceListener]] used to report on progress and errors for this device.
+  * @tparam R The type of files a device contains.
+  */
+case class SynchronisationTarget[R](root: R, deviceDescriptor: DeviceDescriptor, deviceListener: DeviceListener[R])
+
 trait DeviceListener[R] {
 
   /**
@@ -135,4 +184,17 @@ trait DeviceListener[R] {
     */
   def synchronisingFinished(count: Int): Unit
 
+  /**
+    * Report what was measured whilst synchronising. This is called just before synchronising finishes or fails and
+    * does nothing by default.
+    * @param metrics The [[SyncMetrics]] for this synchronisation.
+    */
+  def synchronisingMeasured(metrics: SyncMetrics): Unit = {}
+
+  /**
+    * Report music files found whilst reconciling a device that are not known to the Flac Manager server and have
+    * been left on the device. This does nothing by default.
+    * @param relativePaths The paths of the unknown music files.
+    */
+  def unknownMusicFound(relativePaths: Seq[RelativePath]): Unit = {}
 }
\ No newline at end of file
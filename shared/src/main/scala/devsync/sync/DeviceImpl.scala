@@ -16,17 +16,22 @@
 
 package devsync.sync
 
-import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, OutputStream}
+import java.nio.ByteBuffer
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
 
 import cats.data.EitherT
 import cats.syntax.either._
 import cats.implicits._
 import com.typesafe.scalalogging.StrictLogging
 import devsync.json._
-import devsync.remote.ChangesClient
-import org.threeten.bp.Clock
+import devsync.remote.{ChangesClient, ChecksumMismatchException}
+import org.threeten.bp.{Clock, Instant, Duration => JDuration}
 
-import scala.concurrent.{ExecutionContext, Future}
+import scala.annotation.tailrec
+import scala.collection.mutable
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.io.Source
 import scala.util.{Failure, Success, Try}
 
@@ -35,12 +40,21 @@ import scala.util.{Failure, Success, Try}
   * @param jsonCodec The [[JsonCodec]] used to decode JSON objects from the Flac Manager server.
   * @param clock The [[Clock]] used to get the current time.
   * @param faultTolerance Fault tolerance patterns.
+  * @param pageSize The number of changes to download from the Flac Manager server at a time.
+  * @param changeScheduler The [[ChangeScheduler]] used to decide the order each page of changes is applied in.
+  * @param durabilityPolicy The [[DurabilityPolicy]] used to decide when music is forced to the device.
+  * @param useDeviceIndex True if a [[DeviceIndex]] of synchronised tracks should be kept on the device and used to
+  *                       skip tracks that are already current, false otherwise.
   * @tparam R The type of files a device contains. There will need to be typeclasses for both `Resource[R]` and
   *           `ResourceStreamProvider[R]`. This then allows the Android filesystem and the Linux filesystem to
   *           be treated as one.
   */
 class DeviceImpl[R](jsonCodec: JsonCodec,
-                    clock: Clock, faultTolerance: FaultTolerance) extends Device[R] with StrictLogging {
+                    clock: Clock, faultTolerance: FaultTolerance,
+                    pageSize: Int = DeviceImpl.DEFAULT_PAGE_SIZE,
+                    changeScheduler: ChangeScheduler = ChangeScheduler.timestampOrder,
+                    durabilityPolicy: DurabilityPolicy = DurabilityPolicy.fast,
+                    useDeviceIndex: Boolean = false) extends Device[R] with StrictLogging {
 
   /**
     * The name the a device descriptor filename.
@@ -79,6 +93,294 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
     }
   }
 
+  /**
+    * @inheritdoc
+    */
+  override def reconcile(
+                          root: R,
+                          changesClient: ChangesClient,
+                          deviceListener: DeviceListener[R],
+                          removeUnknownMusic: Boolean)(implicit resource: Resource[R],
+                                                       resourceStreamProvider: ResourceStreamProvider[R],
+                                                       executionContext: ExecutionContext): Either[(Exception, Option[Int]), Int] = {
+    deviceListener.synchronisingStarting()
+    val deviceDescriptorAndChanges: Try[(DeviceDescriptor, Seq[Change])] = for {
+      deviceDescriptor <- reloadDeviceDescriptor(root)
+      // Download the manifest whilst the device is being scanned.
+      eventualManifest = Future(changesClient.manifest(deviceDescriptor.user, deviceDescriptor.extension))
+      deviceFiles <- Try(Await.result(scanDevice(root, deviceDescriptor.extension), Duration.Inf))
+      manifest <- Try(Await.result(eventualManifest, Duration.Inf)).flatten
+    } yield {
+      val changes: Seq[Change] = reconciliationChanges(manifest, deviceFiles)
+      if (removeUnknownMusic) {
+        (deviceDescriptor, changes)
+      }
+      else {
+        val (removals, additions) = changes.partition {
+          case _: Removal => true
+          case _ => false
+        }
+        if (removals.nonEmpty) {
+          logger.warn(s"Leaving ${removals.size} music files that are unknown to the server on the device")
+          deviceListener.unknownMusicFound(removals.map(_.relativePath))
+        }
+        (deviceDescriptor, additions)
+      }
+    }
+    deviceDescriptorAndChanges match {
+      case Success((deviceDescriptor, changes)) =>
+        logger.info(s"Reconciling the device requires ${changes.size} changes")
+        val synchroniser = new Synchroniser(root, changesClient, deviceListener, deviceDescriptor, recordsOffsets = false)
+        synchroniser.synchroniseChanges(changes).leftMap(ewmi => (ewmi.e, ewmi.maybeIdx))
+      case Failure(e: Exception) =>
+        deviceListener.synchronisingFailed(e, None)
+        Left(e, None)
+      case Failure(th) => throw th
+    }
+  }
+
+  /**
+    * Find every music file on a device along with its size. Each directory is listed in parallel.
+    * @param root The root of the device.
+    * @param extension The type of music files on the device. Other files are ignored.
+    * @param resource A typeclass with file-like properties.
+    * @param executionContext The execution context used to list directories.
+    * @return Eventually the size of every music file on the device, keyed by its path.
+    */
+  def scanDevice(root: R, extension: Extension)
+                (implicit resource: Resource[R], executionContext: ExecutionContext): Future[Map[RelativePath, Long]] = {
+    val suffix: String = s".${extension.extension}"
+    def scan(directory: R, relativePath: RelativePath): Future[Seq[(RelativePath, Long)]] = {
+      Future(resource.children(directory)).flatMap { children =>
+        val (directories, files) = children.partition(resource.isDirectory)
+        val musicFiles: Seq[(RelativePath, Long)] = files.map(file => (relativePath / resource.name(file), file)).collect {
+          case (path, file) if path.toString.endsWith(suffix) => path -> resource.size(file)
+        }
+        Future.sequence(directories.map(dir => scan(dir, relativePath / resource.name(dir)))).map { nested =>
+          musicFiles ++ nested.flatten
+        }
+      }
+    }
+    scan(root, RelativePath()).map(_.toMap)
+  }
+
+  /**
+    * Work out the changes needed to make a device match a manifest. Files that are not in the manifest are removed
+    * and tracks that are missing, or whose size does not match, are added. All removals come first.
+    * @param manifest The tracks that should be on the device.
+    * @param deviceFiles The size of every music file on the device, keyed by its path.
+    * @return The changes needed to make the device match the manifest.
+    */
+  def reconciliationChanges(manifest: Manifest, deviceFiles: Map[RelativePath, Long]): Seq[Change] = {
+    val now: Instant = clock.instant()
+    val manifestPaths: Set[RelativePath] = manifest.entries.map(_.addition.relativePath).toSet
+    val removals: Seq[Change] =
+      deviceFiles.keys.toSeq.filterNot(manifestPaths).sortBy(_.toString).map(relativePath => Removal(relativePath, now))
+    val additions: Seq[Change] = manifest.entries.filter { entry =>
+      deviceFiles.get(entry.addition.relativePath) match {
+        case Some(size) => entry.maybeSize.exists(_ != size)
+        case None => true
+      }
+    }.map(_.addition)
+    removals ++ additions
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def synchroniseAll(
+                               targets: Seq[SynchronisationTarget[R]],
+                               changesClient: ChangesClient)(implicit resource: Resource[R],
+                                                             resourceStreamProvider: ResourceStreamProvider[R],
+                                                             executionContext: ExecutionContext): Seq[Either[(Exception, Option[Int]), Int]] = {
+    val synchronisers: Seq[Synchroniser] = targets.map { target =>
+      target.deviceListener.synchronisingStarting()
+      new Synchroniser(target.root, changesClient, target.deviceListener, target.deviceDescriptor)
+    }
+    val fanOut = new FanOut(changesClient)
+    val pendingChanges: Seq[(Synchroniser, Seq[(Change, Int)])] = synchronisers.map(s => s -> s.loadUntriedChanges)
+    fanOut.mergeChanges(pendingChanges).foreach { case (change, needs) =>
+      // Devices that have already failed are left alone so that they can carry on from where they stopped next time.
+      val activeNeeds: Seq[(Synchroniser, Int)] = needs.filter(_._1.maybeFailure.isEmpty)
+      if (activeNeeds.nonEmpty) {
+        change match {
+          case addition: Addition => fanOut.addMusic(addition, activeNeeds)
+          case removal: Removal => activeNeeds.foreach { case (synchroniser, idx) => synchroniser.removeAt(removal, idx) }
+        }
+      }
+    }
+    synchronisers.map { synchroniser =>
+      synchroniser.complete(synchroniser.maybeFailure.toLeft(synchroniser.total)).leftMap(ewmi => (ewmi.e, ewmi.maybeIdx))
+    }
+  }
+
+  /**
+    * A class that synchronises several devices at once, downloading each track only once.
+    * @param changesClient The [[ChangesClient]] used to download changes from the Flac Manager server.
+    * @param resource A typeclass with file-like properties.
+    * @param resourceStreamProvider A typeclass used to get a stream of data from a resource.
+    */
+  class FanOut(changesClient: ChangesClient)(implicit resource: Resource[R],
+                                             resourceStreamProvider: ResourceStreamProvider[R]) {
+
+    /**
+      * Merge the changes needed by each device into one sequence, ordered by when each change was made. Changes
+      * that are needed by more than one device are only included once, along with each device and the index of the
+      * change for that device.
+      * @param pendingChanges The changes, with their indices, needed by each device.
+      * @return The merged changes.
+      */
+    def mergeChanges(pendingChanges: Seq[(Synchroniser, Seq[(Change, Int)])]): Seq[(Change, Seq[(Synchroniser, Int)])] = {
+      val queues: Seq[(Synchroniser, mutable.Queue[(Change, Int)])] =
+        pendingChanges.map { case (synchroniser, changes) => synchroniser -> mutable.Queue(changes: _*) }
+      val merged = mutable.Buffer.empty[(Change, Seq[(Synchroniser, Int)])]
+      while (queues.exists(_._2.nonEmpty)) {
+        // Only ever take changes from the front of each queue so that every device sees its changes in order.
+        val next: Change = queues.flatMap(_._2.headOption).map(_._1).minBy(_.at.toEpochMilli)
+        val needs: Seq[(Synchroniser, Int)] = queues.collect {
+          case (synchroniser, queue) if queue.headOption.exists(_._1 == next) => synchroniser -> queue.dequeue()._2
+        }
+        merged += next -> needs
+      }
+      merged
+    }
+
+    /**
+      * Download a track once and write it to every device that needs it and does not already have it.
+      * @param addition The track to add.
+      * @param needs The devices that need the track along with the index of the track for each device.
+      */
+    def addMusic(addition: Addition, needs: Seq[(Synchroniser, Int)]): Unit = {
+      val (maybeTags, maybeArtwork) = loadTagsAndArtwork(changesClient, addition)
+      val files: Seq[(Synchroniser, Int, R)] = needs.flatMap { case (synchroniser, idx) =>
+        synchroniser.startAdding(addition, maybeTags, maybeArtwork, idx).map(file => (synchroniser, idx, file))
+      }
+      if (files.nonEmpty) {
+        logger.info(s"Adding ${addition.relativePath} to ${files.size} devices")
+        faultTolerance.tolerate {
+          discardingCorruptDownloads(files.map(_._3)) {
+            retryingCorruptDownloads(addition) {
+              writeToEach(files.map(_._3)) { out =>
+                val countingOut = new CountingOutputStream(out)
+                changesClient.music(addition, countingOut).map(_ => countingOut.count)
+              }
+            }
+          }
+        } match {
+          case Success(outcomes) =>
+            // A device that could not be written to fails on its own and the others carry on.
+            files.zip(outcomes).foreach {
+              case ((synchroniser, idx, file), Success(size)) =>
+                synchroniser.musicAdded(addition, maybeTags, maybeArtwork, idx, file, Some(size))
+              case ((synchroniser, idx, _), Failure(ex: Exception)) =>
+                synchroniser.fail(ex, idx)
+              case (_, Failure(th)) => throw th
+            }
+          case Failure(ex: Exception) =>
+            files.foreach { case (synchroniser, idx, _) => synchroniser.fail(ex, idx) }
+          case Failure(th) => throw th
+        }
+      }
+    }
+
+    /**
+      * Write the same data to several resources at once. A resource that cannot be opened, written to or closed is
+      * dropped and the others carry on.
+      * @param files The resources to write to.
+      * @param block The code that writes the data to an output stream.
+      * @tparam T The type of result returned by the code that writes the data.
+      * @return Either the outcome for each resource, in the same order as the resources, or an exception if the
+      *         data itself could not be written.
+      */
+    def writeToEach[T](files: Seq[R])(block: OutputStream => Try[T]): Try[Seq[Try[T]]] = {
+      val opened: Seq[Try[OutputStream]] = files.map { file =>
+        logger.info(s"Opening $file for writing")
+        resourceStreamProvider.provideOutputStream(file)
+      }
+      val outs: Seq[OutputStream] = opened.flatMap(_.toOption)
+      val tee = new IsolatingTee(outs)
+      if (outs.isEmpty) {
+        // No resource could be opened so there is nothing to download.
+        Success(opened.map(opening => opening.failed.flatMap(e => Failure(e))))
+      }
+      else {
+        val written: Try[T] = block(tee)
+        val closed: Map[OutputStream, Try[Unit]] = outs.map { out =>
+          val closing: Try[Unit] = Try(out.close())
+          out -> tee.maybeFailure(out).map(e => Failure(e)).getOrElse(closing)
+        }.toMap
+        val outcomes: Seq[Try[T]] = opened.map(_.flatMap(closed).flatMap(_ => written))
+        // If every device failed then the failures belong to the devices and not to the download.
+        if (tee.allFailed) Success(outcomes) else written.map(_ => outcomes)
+      }
+    }
+  }
+
+  /**
+    * Create the executor used to download the next page of changes whilst the current page is being processed.
+    * Each synchronisation gets its own executor and shuts it down once it has finished.
+    * @return A new executor service.
+    */
+  protected def newPageLoader(): ExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "page-loader")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  /**
+    * Download a track again if its checksum did not match the one sent by the server. Only the corrupt track is
+    * downloaded again and any other failure is returned straight away.
+    * @param addition The track being downloaded.
+    * @param attempts The number of times to try downloading the track.
+    * @param block The code that downloads the track.
+    * @tparam T The type of result.
+    * @return The result of the first download with a valid checksum or the last failure.
+    */
+  private def retryingCorruptDownloads[T](addition: Addition, attempts: Int = DeviceImpl.CHECKSUM_ATTEMPTS)(block: => Try[T]): Try[T] = {
+    block.recoverWith {
+      case e: ChecksumMismatchException if attempts > 1 =>
+        logger.warn(s"${addition.relativePath} was corrupted whilst downloading. Downloading it again.", e)
+        retryingCorruptDownloads(addition, attempts - 1)(block)
+    }
+  }
+
+  /**
+    * Remove the partially written copies of a track that was still corrupt after every attempt to download it so
+    * that a corrupt track is never left on a device.
+    * @param files The resources the track was being written to.
+    * @param result The result of downloading the track.
+    * @param resource The resource type class.
+    * @tparam T The type of result.
+    * @return The result of downloading the track.
+    */
+  private def discardingCorruptDownloads[T](files: Seq[R])(result: Try[T])(implicit resource: Resource[R]): Try[T] = {
+    result match {
+      case Failure(_: ChecksumMismatchException) =>
+        files.foreach { file =>
+          logger.warn(s"Removing corrupt download $file")
+          Try(resource.remove(file)).failed.foreach(e => logger.warn(s"Could not remove $file", e))
+        }
+      case _ =>
+    }
+    result
+  }
+
+  /**
+    * Load the tags and artwork for an addition. Neither are required so failures are ignored.
+    * @param changesClient The [[ChangesClient]] used to download changes from the Flac Manager server.
+    * @param addition The addition whose tags and artwork are required.
+    * @return The tags and artwork for the addition, if they could be loaded.
+    */
+  def loadTagsAndArtwork(changesClient: ChangesClient, addition: Addition): (Option[Tags], Option[Array[Byte]]) = {
+    val maybeTags: Option[Tags] = changesClient.tags(addition).toOption
+    val maybeArtwork: Option[Array[Byte]] = {
+      val buff = new ByteArrayOutputStream()
+      IO.closingTry(buff)(changesClient.artwork(addition, _)).toOption.map(_ => buff.toByteArray)
+    }
+    (maybeTags, maybeArtwork)
+  }
 
   /**
     * A class that actually performs the synchronisation of a device with the Flac Manager server.
@@ -88,20 +390,40 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
     * @param deviceDescriptor The [[DeviceDescriptor]] file that describes the device.
     * @param resource A typeclass with file-like properties.
     * @param resourceStreamProvider A typeclass used to get a stream of data from a resource.
+    * @param executionContext The execution context used to download the next page of changes in the background.
+    * @param recordsOffsets True if the device descriptor should record how far synchronisation got, false if the
+    *                       changes being made are not the server's changes and so cannot be resumed part way.
     */
-  class Synchroniser(root: R, changesClient: ChangesClient, deviceListener: DeviceListener[R], deviceDescriptor: DeviceDescriptor)(implicit resource: Resource[R],
-                                                                                                                                   resourceStreamProvider: ResourceStreamProvider[R]) {
+  class Synchroniser(root: R, changesClient: ChangesClient, deviceListener: DeviceListener[R], deviceDescriptor: DeviceDescriptor,
+                     recordsOffsets: Boolean = true)(implicit resource: Resource[R],
+                                                              resourceStreamProvider: ResourceStreamProvider[R],
+                                                              executionContext: ExecutionContext) {
 
     /**
       * Synchronise the device.
       * @return Eventually either an [[EWMI]] or the number of changes.
       */
-    def synchronise: Either[EWMI, Int] = {
-      val wrappedResult: Either[EWMI, Int] = for {
-        changes <- loadChanges
-        result <- processChanges(changes)
-      } yield result
-      updateDeviceDescriptor(deviceDescriptor, wrappedResult) match {
+    def synchronise: Either[EWMI, Int] = complete(processChanges)
+
+    /**
+      * Synchronise the device with a given list of changes rather than those from the server.
+      * @param changes The changes to make.
+      * @return Either an [[EWMI]] or the number of changes.
+      */
+    def synchroniseChanges(changes: Seq[Change]): Either[EWMI, Int] =
+      complete(processPage(ChangesPage(changes, changes.size), 0, 0).map(_ => changes.size))
+
+    /**
+      * Save the result of synchronisation to the device and tell the [[DeviceListener]] how it went.
+      * @param wrappedResult Either an [[EWMI]] or the number of changes.
+      * @return Either an [[EWMI]] or the number of changes.
+      */
+    def complete(wrappedResult: Either[EWMI, Int]): Either[EWMI, Int] = {
+      val savedDeviceDescriptor: Try[Unit] = updateDeviceDescriptor(deviceDescriptor, wrappedResult)
+      val metrics: SyncMetrics = measure
+      logger.info(s"Synchronising metrics: $metrics")
+      deviceListener.synchronisingMeasured(metrics)
+      savedDeviceDescriptor match {
         case Success(_) => wrappedResult match {
           case Right(count) =>
             logger.info("Synchronising completed successfully.")
@@ -122,48 +444,238 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
     }
 
     /**
-      * Load the [[Changes]] from a Flac Manager server.
-      * @return Eventually either a [[Changes]] object or a failure.
+      * The time synchronising started.
       */
-    def loadChanges: Either[EWMI, Changes] = {
+    private val startedAt: Instant = clock.instant()
+
+    /**
+      * The number of albums that have had all their tracks added.
+      */
+    private var albumsCompleted: Int = 0
+
+    /**
+      * The time the first album had all its tracks added, if any has.
+      */
+    private var maybeFirstAlbumCompletedAt: Option[Instant] = None
+
+    /**
+      * Record that all the tracks in an album have been added.
+      * @param album The relative path of the album.
+      */
+    def albumCompleted(album: RelativePath): Unit = {
+      logger.info(s"All tracks in $album have been added")
+      albumsCompleted += 1
+      if (maybeFirstAlbumCompletedAt.isEmpty) {
+        maybeFirstAlbumCompletedAt = Some(clock.instant())
+      }
+    }
+
+    /**
+      * Get the [[SyncMetrics]] for synchronising so far.
+      * @return The [[SyncMetrics]] for synchronising so far.
+      */
+    def measure: SyncMetrics = SyncMetrics(
+      albumsCompleted,
+      JDuration.between(startedAt, clock.instant()),
+      maybeFirstAlbumCompletedAt.map(JDuration.between(startedAt, _)))
+
+    /**
+      * The failure, if any, that stopped this device being synchronised alongside others.
+      */
+    var maybeFailure: Option[EWMI] = None
+
+    /**
+      * The total number of changes, including those already synchronised, when synchronising alongside others.
+      */
+    var total: Int = 0
+
+    /**
+      * Download all the [[Change]]s that have not yet been synchronised, for synchronising alongside other devices.
+      * @return The changes that have not yet been synchronised along with their indices.
+      */
+    def loadUntriedChanges: Seq[(Change, Int)] = {
+      val offset: Int = deviceDescriptor.maybeOffset.getOrElse(0)
       changesClient.changesSince(deviceDescriptor.user, deviceDescriptor.extension, deviceDescriptor.maybeLastModified) match {
-        case Success(changes) => Right(changes)
-        case Failure(ex: Exception) => Left(ExceptionWithMaybeIndex(ex))
+        case Success(changes) =>
+          total = changes.changes.size
+          changes.changes.zipWithIndex.filter(_._2 >= offset)
+        case Failure(ex: Exception) =>
+          maybeFailure = Some(ExceptionWithMaybeIndex(ex, None))
+          Seq.empty
+        case Failure(th) => throw th
+      }
+    }
+
+    /**
+      * Remove a track from this device whilst synchronising alongside other devices.
+      * @param removal The track to remove.
+      * @param idx The index of the change.
+      */
+    def removeAt(removal: Removal, idx: Int): Unit = {
+      beforeChange(removal, idx)
+      processRichChangeWithProgress(RichChangeWithProgress(RichRemoval(removal), Progress(idx, total))) match {
+        case Failure(ex: Exception) => fail(ex, idx)
+        case Failure(th) => throw th
+        case _ => afterChange(idx + 1)
       }
     }
 
     /**
-      * Process and synchronise a list of [[Change]]s.
-      * @param changes The [[Changes]] object downloaded from the Flac Manager server.
-      * @return Eventually either the number of changes or a failure.
+      * Get ready to add a track to this device whilst synchronising alongside other devices. If the track is
+      * already on the device then it is reported as added straight away.
+      * @param addition The track to add.
+      * @param maybeTags The track's tags, if they could be loaded.
+      * @param maybeArtwork The track's artwork, if it could be loaded.
+      * @param idx The index of the change.
+      * @return The resource the track should be written to or none if it is already on the device or could not be
+      *         created.
       */
-    def processChanges(changes: Changes): Either[EWMI, Int] = {
+    def startAdding(addition: Addition, maybeTags: Option[Tags], maybeArtwork: Option[Array[Byte]], idx: Int): Option[R] = {
+      beforeChange(addition, idx)
+      deviceListener.addingMusic(addition, maybeTags, maybeArtwork, Progress(idx, total))
+      findCurrentMusic(addition) match {
+        case Some(file) =>
+          logger.info(s"${addition.relativePath} is already on the device")
+          musicAdded(addition, maybeTags, maybeArtwork, idx, file, None)
+          None
+        case None => createMusicFile(addition) match {
+          case Success(file) => Some(file)
+          case Failure(ex: Exception) =>
+            fail(ex, idx)
+            None
+          case Failure(th) => throw th
+        }
+      }
+    }
+
+    /**
+      * Report that a track was added to this device whilst synchronising alongside other devices.
+      * @param addition The track that was added.
+      * @param maybeTags The track's tags, if they could be loaded.
+      * @param maybeArtwork The track's artwork, if it could be loaded.
+      * @param idx The index of the change.
+      * @param file The resource containing the track.
+      * @param maybeSize The number of bytes written or none if the track was already on the device.
+      */
+    def musicAdded(
+                    addition: Addition,
+                    maybeTags: Option[Tags],
+                    maybeArtwork: Option[Array[Byte]],
+                    idx: Int,
+                    file: R,
+                    maybeSize: Option[Long]): Unit = {
+      maybeSize.foreach(size => recordAddition(addition, file, size))
+      deviceListener.musicAdded(addition, maybeTags, maybeArtwork, Progress(idx, total), file)
+      afterChange(idx + 1)
+    }
+
+    /**
+      * Stop synchronising this device alongside others.
+      * @param ex The reason for stopping.
+      * @param idx The index of the change that failed.
+      */
+    def fail(ex: Exception, idx: Int): Unit = {
+      maybeFailure = Some(ExceptionWithMaybeIndex(ex, Some(idx)))
+    }
+
+    /**
+      * Start downloading a page of [[Changes]] from a Flac Manager server in the background.
+      * @param page The number of the page to download.
+      * @param pageLoadingContext The execution context used only for downloading pages, so that downloading can
+      *                           never be starved by whatever else is running in the shared execution context.
+      * @return Eventually a [[ChangesPage]] or a failure.
+      */
+    def loadPage(page: Int, pageLoadingContext: ExecutionContext): Future[Try[ChangesPage]] = Future {
+      changesClient.changesSince(
+        deviceDescriptor.user, deviceDescriptor.extension, deviceDescriptor.maybeLastModified, page, pageSize)
+    }(pageLoadingContext)
+
+    /**
+      * Process and synchronise all [[Change]]s, a page at a time. Whilst one page is being processed the next is
+      * downloaded on a thread of its own.
+      * @return Either the number of changes or a failure.
+      */
+    def processChanges: Either[EWMI, Int] = {
+      val offset: Int = deviceDescriptor.maybeOffset.getOrElse(0)
+      val firstPage: Int = offset / pageSize
+      val pageLoader: ExecutorService = newPageLoader()
+      val pageLoadingContext: ExecutionContext = ExecutionContext.fromExecutorService(pageLoader)
+      @tailrec
+      def processPages(page: Int, pageFuture: Future[Try[ChangesPage]]): Either[EWMI, Int] = {
+        val firstIndex: Int = page * pageSize
+        Try(Await.result(pageFuture, DeviceImpl.PAGE_TIMEOUT)).flatten match {
+          case Failure(ex: Exception) =>
+            // If a later page could not be downloaded, carry on from its first change next time.
+            val maybeIdx: Option[Int] = if (page == firstPage) None else Some(firstIndex)
+            Left(ExceptionWithMaybeIndex(ex, maybeIdx))
+          case Failure(th) => throw th
+          case Success(changesPage) =>
+            val total: Int = changesPage.total
+            val hasNextPage: Boolean = firstIndex + pageSize < total && changesPage.changes.nonEmpty
+            val maybeNextPageFuture: Option[Future[Try[ChangesPage]]] =
+              if (hasNextPage) Some(loadPage(page + 1, pageLoadingContext)) else None
+            processPage(changesPage, firstIndex, offset) match {
+              case Right(_) => maybeNextPageFuture match {
+                case Some(nextPageFuture) => processPages(page + 1, nextPageFuture)
+                case None => Right(total)
+              }
+              case Left(ewmi) => Left(ewmi)
+            }
+        }
+      }
+      try {
+        processPages(firstPage, loadPage(firstPage, pageLoadingContext))
+      }
+      finally {
+        pageLoader.shutdownNow()
+      }
+    }
+
+    /**
+      * Process and synchronise a page of [[Change]]s.
+      * @param changesPage The page of changes downloaded from the Flac Manager server.
+      * @param firstIndex The index of the first change in the page.
+      * @param offset The index of the first change that has not already been synchronised.
+      * @return Either [[Unit]] or a failure.
+      */
+    def processPage(changesPage: ChangesPage, firstIndex: Int, offset: Int): Either[EWMI, Unit] = {
       val empty: Either[EWMI, Unit] = Right({})
-      val total = changes.changes.size
-      val richChangeWithProgressBuilder = RichChangeWithProgress(total)
-      val previouslyUntriedChanges: Seq[(Change, Int)] =
-        changes.changes.zipWithIndex.drop(deviceDescriptor.maybeOffset.getOrElse(0))
-      previouslyUntriedChanges.foldLeft(empty) { (acc, changeWithIndex) =>
+      val richChangeWithProgressBuilder = RichChangeWithProgress(changesPage.total)
+      val previouslyUntriedChanges: Seq[(Change, Int)] = changeScheduler.schedule(
+        changesPage.changes.zipWithIndex.map { case (change, idx) => (change, firstIndex + idx) }.filter(_._2 >= offset))
+      // Changes may have been reordered so, for each position, find the earliest change not yet applied.
+      val resumeIndices: IndexedSeq[Int] =
+        previouslyUntriedChanges.map(_._2).scanRight(firstIndex + changesPage.changes.size) { (idx, earliestIdx) =>
+          math.min(idx, earliestIdx)
+        }.toIndexedSeq
+      // The last addition to each album in this page completes it, at least as far as this page is concerned.
+      val albumsCompletedByPosition: Map[Int, RelativePath] = previouslyUntriedChanges.zipWithIndex.flatMap {
+        case ((addition: Addition, _), position) => addition.relativePath.maybeParent.map(_ -> position)
+        case _ => None
+      }.toMap.map(_.swap)
+      previouslyUntriedChanges.zipWithIndex.foldLeft(empty) { (acc, changeWithIndexAndPosition) =>
+        val (changeWithIndex, position) = changeWithIndexAndPosition
         acc.flatMap { _ =>
           val change: Change = changeWithIndex._1
           val idx: Int = changeWithIndex._2
+          beforeChange(change, resumeIndices(position))
           val richChange: RichChange = change match {
             case addition: Addition =>
-              val maybeTags: Option[Tags] = changesClient.tags(addition).toOption
-              val maybeArtwork: Option[Array[Byte]] = {
-                val buff = new ByteArrayOutputStream()
-                IO.closingTry(buff)(changesClient.artwork(addition, _)).toOption.map(_ => buff.toByteArray)
-              }
+              val (maybeTags, maybeArtwork) = loadTagsAndArtwork(changesClient, addition)
               RichAddition(addition, maybeTags, maybeArtwork)
             case removal: Removal => RichRemoval(removal)
           }
           val richChangeWithProgress = richChangeWithProgressBuilder(richChange, idx)
           processRichChangeWithProgress(richChangeWithProgress) match {
-            case Success(rcwp) => Right(rcwp)
-            case Failure(ex: Exception) => Left(ExceptionWithMaybeIndex(ex, Some(idx)))
+            case Success(rcwp) =>
+              albumsCompletedByPosition.get(position).foreach(albumCompleted)
+              afterChange(resumeIndices(position + 1))
+              Right(rcwp)
+            case Failure(ex: Exception) =>
+              Left(ExceptionWithMaybeIndex(ex, Some(resumeIndices(position))))
           }
         }
-      }.map(_ => total)
+      }
     }
 
     /**
@@ -239,21 +751,232 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
       * @param addition The track to add.
       * @return Eventually either the resource that was newly created or an exception.
       */
-    def addMusic(addition: Addition): Try[R] = {
-      addition.relativePath match {
+    def addMusic(addition: Addition): Try[R] = findCurrentMusic(addition) match {
+      case Some(file) =>
+        logger.info(s"${addition.relativePath} is already on the device")
+        Success(file)
+      case None => addition.relativePath match {
         case rp @ DirectoryAndFile(dir, name) =>
           logger.info(s"Adding $rp")
           faultTolerance.tolerate {
             for {
-              directory <- resource.mkdirs(root, dir)
-              file <- resource.findOrCreateResource(directory, "audio/mp3", name)
-              _ <- resource.writeTo(file, out => changesClient.music(addition, out))
+              file <- createMusicFile(dir, name)
+              size <- discardingCorruptDownloads(Seq(file)) {
+                retryingCorruptDownloads(addition) {
+                  resource.writeTo(file, out => {
+                    val countingOut = new CountingOutputStream(out)
+                    changesClient.music(addition, countingOut).map(_ => countingOut.count)
+                  })
+                }
+              }
             } yield {
+              recordAddition(addition, file, size)
               file
             }
           }
-        case _ =>
-          Try(throw new IllegalArgumentException(s"Relative path ${addition.relativePath} does not point to a file and directory."))
+        case _ => notAFileAndDirectory(addition)
+      }
+    }
+
+    /**
+      * Record that a track has been written to the device so that it is forced to the device and added to the
+      * device index.
+      * @param addition The track that was written.
+      * @param file The resource the track was written to.
+      * @param size The number of bytes written.
+      */
+    def recordAddition(addition: Addition, file: R, size: Long): Unit = {
+      // Only remember unforced tracks if they will be forced, otherwise they would pile up forever.
+      if (durabilityPolicy.syncs) {
+        unsyncedFiles += file
+        unsyncedBytes += size
+        maybeUnsyncedAlbum = addition.relativePath.maybeParent
+      }
+      updateDeviceIndex(
+        addition.relativePath,
+        Some(IndexEntry(addition.relativePath, size, DeviceIndex.validatorOf(addition), clock.instant())))
+    }
+
+    /**
+      * Create the resource, and its parent directories, that a track will be written to.
+      * @param addition The track to add.
+      * @return Either the resource or an exception.
+      */
+    def createMusicFile(addition: Addition): Try[R] = {
+      addition.relativePath match {
+        case DirectoryAndFile(dir, name) => faultTolerance.tolerate(createMusicFile(dir, name))
+        case _ => notAFileAndDirectory(addition)
+      }
+    }
+
+    private def createMusicFile(dir: RelativePath, name: String): Try[R] = for {
+      directory <- createdDirectories.get(dir).map(Success(_)).getOrElse(resource.mkdirs(root, dir))
+      file <- resource.findOrCreateResource(directory, "audio/mp3", name)
+    } yield {
+      createdDirectories.put(dir, directory)
+      file
+    }
+
+    /**
+      * Directories that have already been created, so that adding several tracks to an album only creates its
+      * directory once. This is cleared whenever music is removed as removing can also remove empty directories.
+      */
+    private val createdDirectories: mutable.Map[RelativePath, R] = mutable.Map.empty
+
+    private def notAFileAndDirectory(addition: Addition): Try[R] =
+      Try(throw new IllegalArgumentException(s"Relative path ${addition.relativePath} does not point to a file and directory."))
+
+    /**
+      * The index of tracks on the device when synchronisation started.
+      */
+    private var deviceIndex: DeviceIndex = if (useDeviceIndex) loadDeviceIndex() else DeviceIndex.empty
+
+    /**
+      * Tracks added, or removed if none, since the device index was last saved.
+      */
+    private val indexUpdates: mutable.Map[RelativePath, Option[IndexEntry]] = mutable.Map.empty
+
+    /**
+      * Load the device index from the device, memory mapping it if possible. A missing or corrupt index is treated as
+      * an empty one.
+      * @return The device index.
+      */
+    def loadDeviceIndex(): DeviceIndex = {
+      val maybeDeviceIndex: Option[DeviceIndex] = resource.find(root, RelativePath(DeviceIndex.FILENAME)).flatMap { indexFile =>
+        val buffer: Try[ByteBuffer] = resourceStreamProvider.provideMappedBuffer(indexFile) match {
+          case Some(mappedBuffer) => Success(mappedBuffer)
+          case None =>
+            val buff = new ByteArrayOutputStream()
+            resource.readFrom(indexFile, in => Try(IO.copy(in, buff))).map(_ => ByteBuffer.wrap(buff.toByteArray))
+        }
+        buffer.flatMap(DeviceIndex(_)).recover {
+          case e: Exception =>
+            logger.warn("Ignoring the device index as it could not be read", e)
+            DeviceIndex.empty
+        }.toOption
+      }
+      maybeDeviceIndex.getOrElse(DeviceIndex.empty)
+    }
+
+    /**
+      * Use the device index to find a track that is already on the device and is the same as on the server.
+      * @param addition The track to look for.
+      * @return The track's resource or none if it is not on the device or is not current.
+      */
+    def findCurrentMusic(addition: Addition): Option[R] = {
+      val maybeEntry: Option[IndexEntry] = if (useDeviceIndex) {
+        indexUpdates.getOrElse(addition.relativePath, deviceIndex.find(addition.relativePath))
+      }
+      else {
+        None
+      }
+      maybeEntry.filter(_.validator == DeviceIndex.validatorOf(addition)).flatMap { _ =>
+        resource.find(root, addition.relativePath)
+      }
+    }
+
+    /**
+      * Record that a track has been added or removed in the device index.
+      * @param relativePath The relative path of the track.
+      * @param maybeEntry The track's new entry or none if it was removed.
+      */
+    def updateDeviceIndex(relativePath: RelativePath, maybeEntry: Option[IndexEntry]): Unit = {
+      if (useDeviceIndex) {
+        indexUpdates.put(relativePath, maybeEntry)
+      }
+    }
+
+    /**
+      * Write the device index back to the device if it has changed.
+      * @return Either [[Unit]] or an exception.
+      */
+    def saveDeviceIndex(): Try[Unit] = {
+      if (useDeviceIndex && indexUpdates.nonEmpty) {
+        val data: Array[Byte] = DeviceIndex.merge(deviceIndex, indexUpdates)
+        DeviceIndex(ByteBuffer.wrap(data)).flatMap { newDeviceIndex =>
+          // The old index may be memory mapped from the file about to be rewritten and reading a mapping over a
+          // truncated file can crash, so switch to the new index on the heap first. If writing fails the updates
+          // are kept so that they are written next time.
+          deviceIndex = newDeviceIndex
+          for {
+            indexFile <- resource.findOrCreateResource(root, "application/octet-stream", DeviceIndex.FILENAME)
+            _ <- resource.writeTo(indexFile, out => Try(out.write(data)))
+            _ <- if (durabilityPolicy.syncs) resourceStreamProvider.sync(Seq(indexFile)) else Success({})
+          } yield {
+            indexUpdates.clear()
+          }
+        }
+      }
+      else {
+        Success({})
+      }
+    }
+
+    /**
+      * Tracks that have been written but not yet forced to the device.
+      */
+    private val unsyncedFiles: mutable.Buffer[R] = mutable.Buffer.empty
+
+    /**
+      * The number of bytes that have been written but not yet forced to the device.
+      */
+    private var unsyncedBytes: Long = 0
+
+    /**
+      * The album of the last track that was written but not yet forced to the device.
+      */
+    private var maybeUnsyncedAlbum: Option[RelativePath] = None
+
+    /**
+      * Force the previous album to the device, if required, before a change to a different album is applied.
+      * @param change The change about to be applied.
+      * @param resumeIdx The index to carry on from if synchronisation stops after this point.
+      */
+    def beforeChange(change: Change, resumeIdx: Int): Unit = {
+      if (durabilityPolicy.syncEachAlbum && unsyncedFiles.nonEmpty && change.relativePath.maybeParent != maybeUnsyncedAlbum) {
+        syncMusic(Some(resumeIdx))
+      }
+    }
+
+    /**
+      * Force tracks to the device, if required, after a change has been applied.
+      * @param resumeIdx The index to carry on from if synchronisation stops after this point.
+      */
+    def afterChange(resumeIdx: Int): Unit = {
+      val syncRequired: Boolean =
+        durabilityPolicy.syncEachTrack || durabilityPolicy.maybeSyncEveryBytes.exists(unsyncedBytes >= _)
+      if (unsyncedFiles.nonEmpty && syncRequired) {
+        syncMusic(Some(resumeIdx))
+      }
+    }
+
+    /**
+      * Force all unsynced tracks to the device and then, if an index is given, record it in the device descriptor
+      * so that synchronisation carries on from there next time. Failures are logged but do not stop
+      * synchronisation.
+      * @param maybeResumeIdx The index to carry on from if synchronisation stops after this point, if any.
+      */
+    def syncMusic(maybeResumeIdx: Option[Int]): Unit = {
+      if (unsyncedFiles.nonEmpty) {
+        logger.info(s"Forcing ${unsyncedFiles.size} tracks and $unsyncedBytes bytes to the device")
+        resourceStreamProvider.sync(unsyncedFiles.toList).recover {
+          case e: Exception => logger.warn("Could not force music to the device", e)
+        }
+        unsyncedFiles.clear()
+        unsyncedBytes = 0
+        maybeUnsyncedAlbum = None
+        // Rewriting the index costs as much as the index is large, so only do so once enough has changed for that
+        // cost to be shared between many tracks. Anything left over is saved when synchronising finishes.
+        if (indexUpdates.size >= math.max(DeviceImpl.MIN_INDEX_UPDATES, deviceIndex.count / 4)) {
+          saveDeviceIndex().recover {
+            case e: Exception => logger.warn("Could not save the device index", e)
+          }
+        }
+        maybeResumeIdx.filter(_ => recordsOffsets).foreach { resumeIdx =>
+          writeDeviceDescriptor(deviceDescriptor.copy(maybeOffset = Some(resumeIdx))).recover {
+            case e: Exception => logger.warn("Could not record progress in the device descriptor", e)
+          }
+        }
       }
     }
 
@@ -265,6 +988,8 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
     def removeMusic(removal: Removal): Try[Unit] = {
       val path: RelativePath = removal.relativePath
       logger.info(s"Removing $path")
+      createdDirectories.clear()
+      updateDeviceIndex(path, None)
       Try(resource.find(root, path).foreach(resource.removeAndCleanDirectories))
     }
 
@@ -276,14 +1001,29 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
       */
     def updateDeviceDescriptor(deviceDescriptor: DeviceDescriptor, accumulatedResult: Either[EWMI, Int]): Try[Unit] = {
       // Finished - log whether synchronisation was successful or not and write the new device descriptor back to the
+      if (durabilityPolicy.syncs) {
+        syncMusic(None)
+      }
+      saveDeviceIndex().recover {
+        case e: Exception => logger.warn("Could not save the device index", e)
+      }
       val newDeviceDescriptor: DeviceDescriptor = accumulatedResult match {
         case Right(_) =>
           deviceDescriptor.copy(maybeLastModified = Some(clock.instant()), maybeOffset = None)
         case Left(ewmi) =>
           // If the failed index is empty, keep the old index.
           logger.error(s"Synchronising failed at index ${ewmi.maybeIdx}", ewmi.e)
-          deviceDescriptor.copy(maybeOffset = ewmi.maybeIdx.orElse(deviceDescriptor.maybeOffset))
+          deviceDescriptor.copy(maybeOffset = ewmi.maybeIdx.filter(_ => recordsOffsets).orElse(deviceDescriptor.maybeOffset))
       }
+      writeDeviceDescriptor(newDeviceDescriptor)
+    }
+
+    /**
+      * Write a device descriptor to the device, forcing it to the device if the [[DurabilityPolicy]] requires.
+      * @param newDeviceDescriptor The device descriptor to write.
+      * @return Either [[Unit]] or an exception if the device descriptor could not be saved back to the device.
+      */
+    def writeDeviceDescriptor(newDeviceDescriptor: DeviceDescriptor): Try[Unit] = {
       for {
         deviceDescriptorFile <- resource.findOrCreateResource(root, "application/json", DESCRIPTOR_FILENAME)
         _ <- resource.writeTo(deviceDescriptorFile, out => {
@@ -291,6 +1031,7 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
             IO.copy(in, out)
           }
         })
+        _ <- if (durabilityPolicy.syncs) resourceStreamProvider.sync(Seq(deviceDescriptorFile)) else Success({})
       } yield {}
     }
   }
@@ -349,4 +1090,30 @@ class DeviceImpl[R](jsonCodec: JsonCodec,
       case None => Try(throw new IllegalArgumentException(s"Cannot find a device descriptor at $location"))
     }
   }
-}
\ No newline at end of file
+}
+
+/**
+  * Defaults for [[DeviceImpl]]s.
+  */
+object DeviceImpl {
+
+  /**
+    * The default number of changes to download from the Flac Manager server at a time.
+    */
+  val DEFAULT_PAGE_SIZE: Int = 500
+
+  /**
+    * The number of times to try downloading a track whose checksum does not match the one sent by the server.
+    */
+  val CHECKSUM_ATTEMPTS: Int = 3
+
+  /**
+    * How long to wait for a page of changes to be downloaded before giving up.
+    */
+  val PAGE_TIMEOUT: FiniteDuration = 5.minutes
+
+  /**
+    * The fewest changes to the device index that are worth rewriting it for whilst synchronising.
+    */
+  val MIN_INDEX_UPDATES: Int = 100
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.io.{ByteArrayOutputStream, DataOutputStream}
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+import devsync.json.{Addition, RelativePath}
+import org.threeten.bp.Instant
+
+import scala.collection.mutable
+import scala.util.Try
+
+/**
+  * A track recorded in a [[DeviceIndex]].
+  * @param relativePath The relative path of the track on the device.
+  * @param size The size of the track in bytes.
+  * @param validator A value that identifies the version of the track on the server.
+  * @param writtenAt The time the track was written to the device.
+  */
+case class IndexEntry(relativePath: RelativePath, size: Long, validator: String, writtenAt: Instant)
+
+/**
+  * A compact, read only, binary index of the tracks on a device that can be searched without reading it all in to
+  * memory, so it can be used directly on a memory mapped file. The format is a header of a magic number, a version
+  * and the number of entries followed by a fixed size record for each entry, sorted by the UTF-8 bytes of its path,
+  * and then the UTF-8 bytes of every path and validator.
+  * @param buffer The buffer containing the index.
+  * @param count The number of entries in the index.
+  */
+class DeviceIndex private(buffer: ByteBuffer, val count: Int) {
+
+  import DeviceIndex._
+
+  private val heapStart: Int = HEADER_SIZE + count * RECORD_SIZE
+
+  /**
+    * Find the entry for a track using a binary search.
+    * @param relativePath The relative path of the track.
+    * @return The track's entry or none if it is not in the index.
+    */
+  def find(relativePath: RelativePath): Option[IndexEntry] = {
+    val key: Array[Byte] = relativePath.toString.getBytes(StandardCharsets.UTF_8)
+    var low: Int = 0
+    var high: Int = count - 1
+    var maybeFound: Option[Int] = None
+    while (maybeFound.isEmpty && low <= high) {
+      val middle: Int = (low + high) >>> 1
+      val comparison: Int = comparePath(middle, key)
+      if (comparison < 0) {
+        low = middle + 1
+      }
+      else if (comparison > 0) {
+        high = middle - 1
+      }
+      else {
+        maybeFound = Some(middle)
+      }
+    }
+    maybeFound.map(entry)
+  }
+
+  /**
+    * @return All the entries in the index, in path order.
+    */
+  def entries: Seq[IndexEntry] = Range(0, count).map(entry)
+
+  private def comparePath(idx: Int, key: Array[Byte]): Int = {
+    val record: Int = HEADER_SIZE + idx * RECORD_SIZE
+    val pathOffset: Int = heapStart + buffer.getInt(record)
+    val pathLength: Int = buffer.getInt(record + 4)
+    val length: Int = math.min(pathLength, key.length)
+    var i: Int = 0
+    var comparison: Int = 0
+    while (comparison == 0 && i < length) {
+      comparison = (buffer.get(pathOffset + i) & 0xff) - (key(i) & 0xff)
+      i += 1
+    }
+    if (comparison == 0) pathLength - key.length else comparison
+  }
+
+  private def entry(idx: Int): IndexEntry = {
+    val record: Int = HEADER_SIZE + idx * RECORD_SIZE
+    IndexEntry(
+      relativePath = RelativePath(string(buffer.getInt(record), buffer.getInt(record + 4))),
+      size = buffer.getLong(record + 8),
+      writtenAt = Instant.ofEpochMilli(buffer.getLong(record + 16)),
+      validator = string(buffer.getInt(record + 24), buffer.getInt(record + 28)))
+  }
+
+  private def string(offset: Int, length: Int): String = {
+    val bytes = new Array[Byte](length)
+    val view: ByteBuffer = buffer.duplicate()
+    view.position(heapStart + offset)
+    view.get(bytes)
+    new String(bytes, StandardCharsets.UTF_8)
+  }
+}
+
+/**
+  * Read and write [[DeviceIndex]]es.
+  */
+object DeviceIndex {
+
+  /**
+    * The name of the file on a device that contains its index.
+    */
+  val FILENAME: String = "device.idx"
+
+  private val MAGIC: Int = 0x44534958 // DSIX
+  private val VERSION: Int = 1
+  private val HEADER_SIZE: Int = 12
+  private val RECORD_SIZE: Int = 32
+
+  /**
+    * An index with no entries.
+    */
+  val empty: DeviceIndex = new DeviceIndex(ByteBuffer.allocate(0), 0)
+
+  /**
+    * Read an index from a buffer. Every record is checked to make sure that its path and validator lie within the
+    * buffer so that searching a corrupt index can never fail.
+    * @param buffer The buffer containing the index.
+    * @return Either the index or an exception if the buffer does not contain a valid index.
+    */
+  def apply(buffer: ByteBuffer): Try[DeviceIndex] = Try {
+    val limit: Int = buffer.limit()
+    require(limit >= HEADER_SIZE, "The device index is truncated")
+    require(buffer.getInt(0) == MAGIC, "The device index has the wrong magic number")
+    require(buffer.getInt(4) == VERSION, s"The device index has unknown version ${buffer.getInt(4)}")
+    val count: Int = buffer.getInt(8)
+    require(count >= 0 && HEADER_SIZE.toLong + count.toLong * RECORD_SIZE <= limit, "The device index is truncated")
+    val heapStart: Long = HEADER_SIZE.toLong + count.toLong * RECORD_SIZE
+    def inHeap(offset: Int, length: Int): Boolean = offset >= 0 && length >= 0 && heapStart + offset + length <= limit
+    Range(0, count).foreach { idx =>
+      val record: Int = HEADER_SIZE + idx * RECORD_SIZE
+      require(
+        inHeap(buffer.getInt(record), buffer.getInt(record + 4)) && inHeap(buffer.getInt(record + 24), buffer.getInt(record + 28)),
+        s"Entry $idx of the device index is corrupt")
+    }
+    new DeviceIndex(buffer, count)
+  }
+
+  /**
+    * Write entries as an index.
+    * @param entries The entries to write, in any order. Only the last entry for each path is kept.
+    * @return The binary index.
+    */
+  def encode(entries: Seq[IndexEntry]): Array[Byte] = {
+    val sortedEntries: Seq[(Array[Byte], IndexEntry)] = entries.
+      map(entry => entry.relativePath.toString -> entry).toMap.toSeq.
+      map { case (path, entry) => (path.getBytes(StandardCharsets.UTF_8), entry) }.
+      sortWith { case ((left, _), (right, _)) => compareBytes(left, right) < 0 }
+    write(sortedEntries)
+  }
+
+  /**
+    * Write an index that is an existing index with some tracks added, replaced or removed. The existing entries are
+    * already in order so only the updates need sorting before the two are merged.
+    * @param deviceIndex The existing index.
+    * @param updates The new entry for each track that has changed, or none if it has been removed.
+    * @return The binary index.
+    */
+  def merge(deviceIndex: DeviceIndex, updates: Iterable[(RelativePath, Option[IndexEntry])]): Array[Byte] = {
+    val existing: BufferedIterator[(Array[Byte], IndexEntry)] = Range(0, deviceIndex.count).iterator.map { idx =>
+      val entry: IndexEntry = deviceIndex.entry(idx)
+      (entry.relativePath.toString.getBytes(StandardCharsets.UTF_8), entry)
+    }.buffered
+    val pending: BufferedIterator[(Array[Byte], Option[IndexEntry])] = updates.toSeq.
+      map { case (relativePath, maybeEntry) => (relativePath.toString.getBytes(StandardCharsets.UTF_8), maybeEntry) }.
+      sortWith { case ((left, _), (right, _)) => compareBytes(left, right) < 0 }.
+      iterator.buffered
+    val merged: mutable.Buffer[(Array[Byte], IndexEntry)] = mutable.ArrayBuffer.empty
+    while (existing.hasNext || pending.hasNext) {
+      val comparison: Int =
+        if (!pending.hasNext) -1 else if (!existing.hasNext) 1 else compareBytes(existing.head._1, pending.head._1)
+      if (comparison < 0) {
+        merged += existing.next()
+      }
+      else {
+        // An update replaces, or removes, the existing entry with the same path.
+        if (comparison == 0) {
+          existing.next()
+        }
+        val (path, maybeEntry) = pending.next()
+        maybeEntry.foreach(entry => merged += path -> entry)
+      }
+    }
+    write(merged)
+  }
+
+  private def write(sortedEntries: Seq[(Array[Byte], IndexEntry)]): Array[Byte] = {
+    val encodedEntries: Seq[(Array[Byte], Array[Byte], IndexEntry)] = sortedEntries.map { case (path, entry) =>
+      (path, entry.validator.getBytes(StandardCharsets.UTF_8), entry)
+    }
+    val buff = new ByteArrayOutputStream()
+    val out = new DataOutputStream(buff)
+    out.writeInt(MAGIC)
+    out.writeInt(VERSION)
+    out.writeInt(encodedEntries.size)
+    encodedEntries.foldLeft(0) { case (heapOffset, (path, validator, entry)) =>
+      out.writeInt(heapOffset)
+      out.writeInt(path.length)
+      out.writeLong(entry.size)
+      out.writeLong(entry.writtenAt.toEpochMilli)
+      out.writeInt(heapOffset + path.length)
+      out.writeInt(validator.length)
+      heapOffset + path.length + validator.length
+    }
+    encodedEntries.foreach { case (path, validator, _) =>
+      out.write(path)
+      out.write(validator)
+    }
+    out.flush()
+    buff.toByteArray
+  }
+
+  /**
+    * Get the validator used to decide whether a track on a device is the same as an addition from the server.
+    * @param addition The addition from the server.
+    * @return A value that changes whenever the track changes on the server.
+    */
+  def validatorOf(addition: Addition): String = addition.at.toString
+
+  private def compareBytes(left: Array[Byte], right: Array[Byte]): Int = {
+    val length: Int = math.min(left.length, right.length)
+    var i: Int = 0
+    var comparison: Int = 0
+    while (comparison == 0 && i < length) {
+      comparison = (left(i) & 0xff) - (right(i) & 0xff)
+      i += 1
+    }
+    if (comparison == 0) left.length - right.length else comparison
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+/**
+  * How hard synchronisation should try to make sure that music has reached a device before carrying on. Forcing
+  * data to flash storage is slow so the less often it happens the faster synchronisation is, but the more work is
+  * lost if a device is removed part way through. Whenever data is forced to the device the device descriptor is
+  * also updated so that synchronisation carries on from that point next time.
+  * @param syncEachTrack True if each track should be forced to the device once it has been written.
+  * @param syncEachAlbum True if an album's tracks should be forced to the device once the next album is started.
+  * @param maybeSyncEveryBytes The number of bytes that can be written before they are forced to the device, if any.
+  */
+case class DurabilityPolicy(syncEachTrack: Boolean, syncEachAlbum: Boolean, maybeSyncEveryBytes: Option[Long]) {
+
+  /**
+    * @return True if this policy ever forces data to the device, false otherwise.
+    */
+  def syncs: Boolean = syncEachTrack || syncEachAlbum || maybeSyncEveryBytes.isDefined
+}
+
+/**
+  * The available [[DurabilityPolicy]] presets.
+  */
+object DurabilityPolicy {
+
+  /**
+    * Never force data to the device and leave it to the operating system. This is the fastest but if a device is
+    * removed without being unmounted then everything since the last synchronisation may need to be copied again.
+    */
+  val fast: DurabilityPolicy = DurabilityPolicy(syncEachTrack = false, syncEachAlbum = false, maybeSyncEveryBytes = None)
+
+  /**
+    * Force data to the device once per album or every 64 MiB, whichever comes first. At most one album needs to be
+    * copied again if a device is removed and the cost is one flush per album instead of one per track.
+    */
+  val balanced: DurabilityPolicy =
+    DurabilityPolicy(syncEachTrack = false, syncEachAlbum = true, maybeSyncEveryBytes = Some(64L * 1024 * 1024))
+
+  /**
+    * Force every track to the device as soon as it has been written. Nothing needs to be copied again if a device
+    * is removed but every track waits for the device to finish writing.
+    */
+  val safe: DurabilityPolicy = DurabilityPolicy(syncEachTrack = true, syncEachAlbum = true, maybeSyncEveryBytes = None)
+
+  /**
+    * Find a preset by name.
+    * @param name The name of the preset: fast, balanced or safe.
+    * @return The preset with the given name or none if there is no such preset.
+    */
+  def named(name: String): Option[DurabilityPolicy] = name.toLowerCase match {
+    case "fast" => Some(fast)
+    case "balanced" => Some(balanced)
+    case "safe" => Some(safe)
+    case _ => None
+  }
+}
@@ -71,4 +71,27 @@ object IO {
   def closing[T, C <: Closeable](closeable: => C, afterClose: => Unit = {})(block: C => T): Try[T] = {
     closingTry(closeable)(cl => Try(block(cl)))
   }
-}
\ No newline at end of file
+
+  /**
+    * Create an output stream that writes everything it is given to several other output streams. Closing the
+    * returned stream does not close the other streams.
+    * @param outs The output streams to write to.
+    * @return An output stream that writes to all the given output streams.
+    */
+  def tee(outs: Seq[OutputStream]): OutputStream = new OutputStream with SizeHint {
+    override def expectSize(size: Long): Unit = outs.foreach(IO.expectSize(_, size))
+    override def write(b: Int): Unit = outs.foreach(_.write(b))
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = outs.foreach(_.write(b, off, len))
+    override def flush(): Unit = outs.foreach(_.flush())
+  }
+
+  /**
+    * Tell an output stream how many bytes are going to be written to it, if it can make use of the information.
+    * @param out The output stream that will be written to.
+    * @param size The number of bytes that are expected.
+    */
+  def expectSize(out: OutputStream, size: Long): Unit = out match {
+    case sizeHint: SizeHint => sizeHint.expectSize(size)
+    case _ =>
+  }
+}
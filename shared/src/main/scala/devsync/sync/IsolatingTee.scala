@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.io.{IOException, OutputStream}
+
+import com.typesafe.scalalogging.StrictLogging
+
+import scala.collection.mutable
+
+/**
+  * An output stream that writes everything it is given to several other output streams. Unlike [[IO.tee]], an
+  * output stream that fails is dropped and the rest carry on. Writing only fails once every output stream has
+  * failed. Closing this stream does not close the other streams.
+  * @param outs The output streams to write to.
+  */
+class IsolatingTee(outs: Seq[OutputStream]) extends OutputStream with SizeHint with StrictLogging {
+
+  private val failures: mutable.Map[OutputStream, IOException] = mutable.LinkedHashMap.empty
+
+  /**
+    * Get the failure, if any, that caused an output stream to be dropped.
+    * @param out One of the output streams being written to.
+    * @return The exception thrown by the output stream or none if it has not failed.
+    */
+  def maybeFailure(out: OutputStream): Option[IOException] = failures.get(out)
+
+  /**
+    * @return True if every output stream has failed, false otherwise.
+    */
+  def allFailed: Boolean = outs.forall(failures.contains)
+
+  private def each(action: OutputStream => Unit): Unit = {
+    outs.filterNot(failures.contains).foreach { out =>
+      try {
+        action(out)
+      }
+      catch {
+        case e: IOException =>
+          logger.warn(s"Dropping $out as it could not be written to", e)
+          failures.put(out, e)
+      }
+    }
+    if (outs.nonEmpty && allFailed) {
+      throw new IOException("Every output stream has failed", failures.values.head)
+    }
+  }
+
+  /**
+    * @inheritdoc
+    */
+  override def expectSize(size: Long): Unit = each(IO.expectSize(_, size))
+
+  override def write(b: Int): Unit = each(_.write(b))
+
+  override def write(b: Array[Byte], off: Int, len: Int): Unit = each(_.write(b, off, len))
+
+  override def flush(): Unit = each(_.flush())
+}
@@ -17,12 +17,13 @@
 package devsync.sync
 
 import java.io.{InputStream, OutputStream}
+import java.nio.ByteBuffer
 
 import com.typesafe.scalalogging.StrictLogging
 import devsync.json.RelativePath
 import simulacrum.typeclass
 
-import scala.util.Try
+import scala.util.{Success, Try}
 
 /**
   * A type class used to allow the android file system and a desktop file system to be accessed in the same way.
@@ -51,6 +52,34 @@ trait Resource[R] extends StrictLogging {
     */
   def find(resource: R, path: RelativePath): Option[R]
 
+  /**
+    * List the resources directly inside a directory.
+    * @param resource The directory to list.
+    * @return The resources inside the directory or an empty sequence if the resource is not a directory.
+    */
+  def children(resource: R): Seq[R]
+
+  /**
+    * Check to see if a resource is a directory.
+    * @param resource The resource to check.
+    * @return True if the resource is a directory, false otherwise.
+    */
+  def isDirectory(resource: R): Boolean
+
+  /**
+    * Get the name of a resource.
+    * @param resource The resource whose name is required.
+    * @return The name of the resource, without any parent directories.
+    */
+  def name(resource: R): String
+
+  /**
+    * Get the size of a resource.
+    * @param resource The resource whose size is required.
+    * @return The size of the resource in bytes.
+    */
+  def size(resource: R): Long
+
   /**
     * Find or create a new resource.
     * @param resource The base resource.
@@ -170,4 +199,19 @@ trait ResourceStreamProvider[R] {
     * @return Either an output stream for the resource or an exception.
     */
   def provideOutputStream(resource: R): Try[OutputStream]
+
+  /**
+    * Make sure that everything written to some resources has reached the underlying storage. By default this does
+    * nothing.
+    * @param resources The resources that have been written.
+    * @return Either [[Unit]] or an exception.
+    */
+  def sync(resources: Seq[R]): Try[Unit] = Success({})
+
+  /**
+    * Map a resource in to memory so that it can be read without copying it. By default resources cannot be mapped.
+    * @param resource The resource to map.
+    * @return The contents of the resource or none if it cannot be mapped.
+    */
+  def provideMappedBuffer(resource: R): Option[ByteBuffer] = None
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+/**
+  * A trait for output streams that can write more efficiently if they know how much data is going to be written to
+  * them before it arrives.
+  */
+trait SizeHint {
+
+  /**
+    * Tell this output stream how many bytes are going to be written to it.
+    * @param size The number of bytes that are expected.
+    */
+  def expectSize(size: Long): Unit
+}
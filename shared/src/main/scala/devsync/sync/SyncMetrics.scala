@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import org.threeten.bp.Duration
+
+/**
+  * Measurements taken whilst synchronising a device.
+  **/
+case class SyncMetrics(
+                        /**
+                          * The number of albums whose tracks were all added.
+                          */
+                        albumsCompleted: Int,
+                        /**
+                          * How long synchronising took.
+                          */
+                        elapsed: Duration,
+                        /**
+                          * How long it took until the first album was complete and so could be played, if any were.
+                          */
+                        maybeTimeToFirstCompleteAlbum: Option[Duration]) {
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.discovery
+
+import java.io.IOException
+import java.net.URL
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.specs2.mutable.Specification
+
+import scala.collection.mutable
+import scala.concurrent.ExecutionContext
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.util.{Failure, Success, Try}
+
+class CachingFlacManagerDiscoverySpec extends Specification {
+
+  val remembered = new URL("http://remembered:9999/")
+  val searched = new URL("http://searched:9999/")
+
+  "Discovering a server that has not moved" should {
+    val urlStore = new MemoryUrlStore(remembered)
+    val search = new SlowSearch(Success(searched), 10.seconds)
+    val started: Long = System.currentTimeMillis()
+    val result: Try[URL] =
+      new CachingFlacManagerDiscovery(search, urlStore, _ == remembered).discover(dev = false, 10.seconds)
+    val elapsed: Long = System.currentTimeMillis() - started
+    "use the remembered URL" in {
+      result must beSuccessfulTry(remembered)
+    }
+    "not wait for the search to finish" in {
+      elapsed must be_<(5000L)
+    }
+    "stop searching" in {
+      search.interrupted.await(5, TimeUnit.SECONDS) must beTrue
+    }
+  }
+
+  "Discovering a server that has moved" should {
+    val urlStore = new MemoryUrlStore(remembered)
+    val search = new SlowSearch(Success(searched), 100.millis)
+    val result: Try[URL] =
+      new CachingFlacManagerDiscovery(search, urlStore, _ => false).discover(dev = false, 10.seconds)
+    "use the URL found by searching" in {
+      result must beSuccessfulTry(searched)
+    }
+    "remember the new URL" in {
+      urlStore.load(dev = false) must beSome(searched)
+    }
+  }
+
+  "Discovering a server for the first time" should {
+    val urlStore = new MemoryUrlStore()
+    val search = new SlowSearch(Success(searched), 100.millis)
+    val probed: mutable.Buffer[URL] = mutable.Buffer.empty
+    val result: Try[URL] =
+      new CachingFlacManagerDiscovery(search, urlStore, { url => probed += url; true }).discover(dev = false, 10.seconds)
+    "fall back to searching" in {
+      result must beSuccessfulTry(searched)
+    }
+    "not probe anything" in {
+      probed must beEmpty
+    }
+    "remember the URL" in {
+      urlStore.load(dev = false) must beSome(searched)
+    }
+  }
+
+  "Failing to discover a server" should {
+    val urlStore = new MemoryUrlStore(remembered)
+    val search = new SlowSearch(Failure(new IOException("Nothing found")), 100.millis)
+    val result: Try[URL] =
+      new CachingFlacManagerDiscovery(search, urlStore, _ => false).discover(dev = false, 10.seconds)
+    "fail" in {
+      result must beFailedTry
+    }
+    "keep the remembered URL" in {
+      urlStore.load(dev = false) must beSome(remembered)
+    }
+  }
+
+  class MemoryUrlStore(urls: URL*) extends UrlStore {
+    val urlsByDev: mutable.Map[Boolean, URL] = mutable.Map(urls.map(false -> _) :_*)
+
+    override def load(dev: Boolean): Option[URL] = urlsByDev.synchronized(urlsByDev.get(dev))
+
+    override def save(dev: Boolean, url: URL): Unit = urlsByDev.synchronized(urlsByDev.put(dev, url))
+  }
+
+  /**
+    * A search that takes a while to finish and notices if it is interrupted.
+    */
+  class SlowSearch(result: Try[URL], delay: Duration) extends FlacManagerDiscovery {
+    val interrupted = new CountDownLatch(1)
+
+    override def discover(dev: Boolean, timeout: Duration)(implicit ec: ExecutionContext): Try[URL] = {
+      try {
+        Thread.sleep(delay.toMillis)
+        result
+      }
+      catch {
+        case e: InterruptedException =>
+          interrupted.countDown()
+          Failure(e)
+      }
+    }
+  }
+}
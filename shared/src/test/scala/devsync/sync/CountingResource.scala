@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.io._
+
+import devsync.json.RelativePath
+
+import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
+
+/**
+  * A node in an in-memory file system that counts every operation made against it. Only the size of music files is
+  * kept so that very large devices can be simulated cheaply.
+  **/
+sealed trait MemoryNode {
+  val name: String
+  val maybeParent: Option[MemoryDirectory]
+
+  override def toString: String = name
+}
+
+class MemoryDirectory(override val name: String, override val maybeParent: Option[MemoryDirectory]) extends MemoryNode {
+  val children: mutable.Map[String, MemoryNode] = mutable.HashMap.empty
+}
+
+class MemoryFile(override val name: String, override val maybeParent: Option[MemoryDirectory]) extends MemoryNode {
+  var size: Long = 0
+  var maybeContent: Option[Array[Byte]] = None
+}
+
+/**
+  * The number of times each operation was made against a [[CountingResource]].
+  */
+class OperationCounts {
+  private val counts: mutable.Map[String, Long] = mutable.Map.empty[String, Long].withDefaultValue(0L)
+
+  def count(operation: String): Unit = counts.synchronized {
+    counts(operation) += 1
+  }
+
+  def apply(operation: String): Long = counts.synchronized(counts(operation))
+
+  def total: Long = counts.synchronized(counts.values.sum)
+
+  override def toString: String = counts.synchronized(counts.toSeq.sorted.mkString(", "))
+}
+
+/**
+  * Resource and resource stream typeclasses for [[MemoryNode]]s that count every operation.
+  * @param counts The counts to add to.
+  */
+class CountingResource(val counts: OperationCounts) extends Resource[MemoryNode] with ResourceStreamProvider[MemoryNode] {
+
+  def root(files: (String, String)*): MemoryDirectory = {
+    val root = new MemoryDirectory("", None)
+    files.foreach { case (name, content) =>
+      val file = new MemoryFile(name, Some(root))
+      file.maybeContent = Some(content.getBytes("UTF-8"))
+      root.children.put(name, file)
+    }
+    root
+  }
+
+  override def canWrite(node: MemoryNode): Boolean = {
+    counts.count("canWrite")
+    true
+  }
+
+  override def exists(node: MemoryNode): Boolean = {
+    counts.count("exists")
+    node.maybeParent.forall(_.children.get(node.name).contains(node))
+  }
+
+  override def find(node: MemoryNode, path: RelativePath): Option[MemoryNode] = {
+    counts.count("find")
+    path.pathSegments.foldLeft(Option(node)) { (maybeNode, segment) =>
+      maybeNode.flatMap {
+        case d: MemoryDirectory => d.children.get(segment)
+        case _ => None
+      }
+    }
+  }
+
+  override def children(node: MemoryNode): Seq[MemoryNode] = {
+    counts.count("children")
+    node match {
+      case d: MemoryDirectory => d.children.values.toList
+      case _ => Seq.empty
+    }
+  }
+
+  override def isDirectory(node: MemoryNode): Boolean = node.isInstanceOf[MemoryDirectory]
+
+  override def name(node: MemoryNode): String = node.name
+
+  override def size(node: MemoryNode): Long = node match {
+    case f: MemoryFile => f.size
+    case _ => 0L
+  }
+
+  override def findOrCreateResource(node: MemoryNode, mimeType: String, name: String): Try[MemoryNode] = {
+    counts.count("findOrCreateResource")
+    node match {
+      case d: MemoryDirectory => d.children.get(name) match {
+        case Some(f: MemoryFile) => Success(f)
+        case Some(_) => Failure(new IOException(s"$name is a directory"))
+        case None =>
+          val file = new MemoryFile(name, Some(d))
+          d.children.put(name, file)
+          Success(file)
+      }
+      case _ => Failure(new IOException(s"Cannot create file $name in a file"))
+    }
+  }
+
+  override def mkdir(node: MemoryNode, name: String): Try[MemoryNode] = {
+    counts.count("mkdir")
+    node match {
+      case d: MemoryDirectory => d.children.get(name) match {
+        case Some(child: MemoryDirectory) => Success(child)
+        case Some(_) => Failure(new IOException(s"$name is not a directory"))
+        case None =>
+          val directory = new MemoryDirectory(name, Some(d))
+          d.children.put(name, directory)
+          Success(directory)
+      }
+      case _ => Failure(new IOException(s"Cannot create directory $name in a file"))
+    }
+  }
+
+  override def remove(node: MemoryNode): Unit = {
+    counts.count("remove")
+    node.maybeParent.foreach(_.children.remove(node.name))
+  }
+
+  override def parent(node: MemoryNode): Option[MemoryNode] = {
+    counts.count("parent")
+    node.maybeParent
+  }
+
+  override def isEmpty(node: MemoryNode): Boolean = {
+    counts.count("isEmpty")
+    node match {
+      case d: MemoryDirectory => d.children.isEmpty
+      case _ => false
+    }
+  }
+
+  override def provideInputStream(node: MemoryNode): Try[InputStream] = {
+    counts.count("provideInputStream")
+    node match {
+      case f: MemoryFile => Success(new ByteArrayInputStream(f.maybeContent.getOrElse(Array.emptyByteArray)))
+      case _ => Failure(new IOException(s"Cannot read from directory $node"))
+    }
+  }
+
+  override def provideOutputStream(node: MemoryNode): Try[OutputStream] = {
+    counts.count("provideOutputStream")
+    node match {
+      case f: MemoryFile =>
+        // Music is only counted but anything else, such as the device descriptor, is kept so it can be read back.
+        val keepContent: Boolean = !f.name.endsWith(".mp3")
+        Success(new OutputStream {
+          val buffer = new ByteArrayOutputStream()
+          var size: Long = 0
+
+          override def write(b: Int): Unit = write(Array(b.toByte), 0, 1)
+
+          override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+            counts.count("write")
+            size += len
+            if (keepContent) buffer.write(b, off, len)
+          }
+
+          override def close(): Unit = {
+            f.size = size
+            if (keepContent) f.maybeContent = Some(buffer.toByteArray)
+          }
+        })
+      case _ => Failure(new IOException(s"Cannot write to directory $node"))
+    }
+  }
+
+  override def sync(nodes: Seq[MemoryNode]): Try[Unit] = {
+    counts.count("sync")
+    Success({})
+  }
+}
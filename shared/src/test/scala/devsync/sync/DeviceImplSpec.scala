@@ -16,15 +16,19 @@
 
 package devsync.sync
 
+import java.io.{IOException, InputStream, OutputStream}
+
 import devsync.json._
+import devsync.remote.ChecksumMismatchException
 import org.specs2.mutable.Specification
-import org.threeten.bp.{Clock, Instant, ZoneId}
+import org.threeten.bp.{Clock, Instant, ZoneId, Duration => JDuration}
 import org.threeten.bp.format.DateTimeFormatter
 
 import scala.collection.mutable
 import scala.concurrent.Await
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.duration._
+import scala.util.{Success, Try}
 
 /**
   * Created by alex on 06/04/17
@@ -136,6 +140,37 @@ class DeviceImplSpec extends Specification {
     }
   }
 
+  "Adding changes a page at a time" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FR("Napalm Death", "Scum", 12, "You Suffer.mp3"),
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance, 2).synchronise(
+        fs, changesClient, listener)
+    "request each page once" in {
+      changesClient.pagesRequested must be_==(Seq(0, 1))
+    }
+    "log changes across pages in order" in {
+      listener.log must be_==(Seq(
+        "START",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|0|3", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|0|3",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|1|3", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|1|3",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3",
+        "FINISHED|3"
+      ))
+    }
+    "identify the number of changes made" in {
+      result must beRight(3)
+    }
+  }
+
   "A set of changes with a failure" should {
     val fs: Directory =
       d.root(
@@ -216,15 +251,490 @@ class DeviceImplSpec extends Specification {
     }
   }
 
+  "Adding changes grouped by directory" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""),
+        d("N", d("Napalm Death", d("Scum", f("audio/mp3", "12 You Suffer.mp3", "But why?")))))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew"),
+      FR("Napalm Death", "Scum", 12, "You Suffer.mp3"),
+      FA("Queen", "Flash Gordon", 2, "In the Space Capsule.mp3", "Bleep")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        changeScheduler = ChangeScheduler.directoryLocality).synchronise(fs, changesClient, listener)
+    "remove music first and then add music an album at a time" in {
+      listener.log must be_==(Seq(
+        "START",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|2|4", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|2|4",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|4", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|4",
+        "ADDING|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|3|4", "ADDED|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|3|4",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|4", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|4",
+        "FINISHED|4"))
+    }
+    "still make every change" in {
+      fs.flatten must be_==(Seq(
+        "/",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/",
+        "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash!)",
+        "/Q/Queen/Flash Gordon/2 In the Space Capsule.mp3 audio/mp3 Some(Bleep)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+    }
+    "identify the number of changes made" in {
+      result must beRight(4)
+    }
+  }
+
+  "A failure when changes have been reordered" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FF("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", new Exception("Oh dear")),
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        changeScheduler = ChangeScheduler.directoryLocality).synchronise(fs, changesClient, listener)
+    "carry on next time from the earliest change that has not been applied" in {
+      result must beLeft.like {
+        case (_, maybeIdx: Option[Int]) => maybeIdx must beSome(0)
+      }
+    }
+  }
+
+  "Adding changes with the newest albums first" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""),
+        d("N", d("Napalm Death", d("Scum", f("audio/mp3", "12 You Suffer.mp3", "But why?")))))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew"),
+      FR("Napalm Death", "Scum", 12, "You Suffer.mp3"),
+      FA("Queen", "Flash Gordon", 2, "In the Space Capsule.mp3", "Bleep"),
+      FA("Motorhead", "Ace of Spades", 1, "Ace of Spades.mp3", "Loud")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        changeScheduler = ChangeScheduler.newestAlbumFirst).synchronise(fs, changesClient, listener)
+    "remove music first and then add the most recently changed album first" in {
+      listener.log must be_==(Seq(
+        "START",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|2|5", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|2|5",
+        "ADDING|M/Motorhead/Ace of Spades/1 Ace of Spades.mp3|4|5", "ADDED|M/Motorhead/Ace of Spades/1 Ace of Spades.mp3|4|5",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|5", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|5",
+        "ADDING|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|3|5", "ADDED|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|3|5",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|5", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|5",
+        "FINISHED|5"))
+    }
+    "measure how many albums were completed and how long the first took" in {
+      listener.maybeMetrics must beSome(SyncMetrics(3, JDuration.ZERO, Some(JDuration.ZERO)))
+    }
+    "identify the number of changes made" in {
+      result must beRight(5)
+    }
+  }
+
+  "Adding changes with priority albums" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew"),
+      FA("Queen", "Flash Gordon", 2, "In the Space Capsule.mp3", "Bleep"),
+      FA("Motorhead", "Ace of Spades", 1, "Ace of Spades.mp3", "Loud")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        changeScheduler = ChangeScheduler.albumPriority(Seq(RelativePath("S/Slayer")))).synchronise(fs, changesClient, listener)
+    "add the priority albums first and then the most recently changed" in {
+      listener.log must be_==(Seq(
+        "START",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|4", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|4",
+        "ADDING|M/Motorhead/Ace of Spades/1 Ace of Spades.mp3|3|4", "ADDED|M/Motorhead/Ace of Spades/1 Ace of Spades.mp3|3|4",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|4", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|4",
+        "ADDING|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|2|4", "ADDED|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|2|4",
+        "FINISHED|4"))
+    }
+    "identify the number of changes made" in {
+      result must beRight(4)
+    }
+  }
+
+  "Adding changes with a balanced durability policy" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Queen", "Flash Gordon", 2, "In the Space Capsule.mp3", "Bleep"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    val listener = new LoggingDeviceListener()
+    val resourceStreamProvider = new SyncLoggingResourceStreamProvider(listener)
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        durabilityPolicy = DurabilityPolicy.balanced).synchronise(
+        fs, changesClient, listener)(FauxFile.FauxResource, resourceStreamProvider, global)
+    "force each album to the device and record progress before starting the next" in {
+      listener.log must be_==(Seq(
+        "START",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|3", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|3",
+        "ADDING|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|1|3", "ADDED|Q/Queen/Flash Gordon/2 In the Space Capsule.mp3|1|3",
+        "SYNC|/Q/Queen/Flash Gordon/1 Flash's Theme.mp3|/Q/Queen/Flash Gordon/2 In the Space Capsule.mp3",
+        "SYNC|/device.json",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3",
+        "SYNC|/S/Slayer/Reign in Blood/5 Jesus Saves.mp3",
+        "SYNC|/device.json",
+        "FINISHED|3"))
+    }
+    "leave a finished device descriptor" in {
+      fs.flatten.last must be_==(
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})""")
+    }
+    "identify the number of changes made" in {
+      result must beRight(3)
+    }
+  }
+
+  "Adding a track that is corrupted whilst downloading" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    changesClient.corruptions.put(RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"), 1)
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).synchronise(
+        fs, changesClient, listener)
+    "download only the corrupted track again" in {
+      changesClient.musicDownloaded must be_==(Seq(
+        RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"),
+        RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"),
+        RelativePath("S/Slayer/Reign in Blood/5 Jesus Saves.mp3")))
+    }
+    "identify the number of changes made" in {
+      result must beRight(2)
+    }
+  }
+
+  "Adding a track that is always corrupted whilst downloading" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!")
+    )
+    changesClient.corruptions.put(RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"), DeviceImpl.CHECKSUM_ATTEMPTS)
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).synchronise(
+        fs, changesClient, listener)
+    "give up after a limited number of attempts" in {
+      changesClient.musicDownloaded must haveSize(DeviceImpl.CHECKSUM_ATTEMPTS)
+    }
+    "fail at the corrupted track" in {
+      result must beLeft.like {
+        case (e: Exception, maybeIdx: Option[Int]) =>
+          maybeIdx must beSome(0)
+          e must beAnInstanceOf[ChecksumMismatchException]
+      }
+    }
+    "not leave the corrupted track on the device" in {
+      fs.flatten must not(contain(beMatching(".*Flash's Theme\\.mp3.*")))
+    }
+  }
+
+  "Reconciling a device that has lost its history" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""),
+        d("N",
+          d("Napalm Death", d("Scum", f("audio/mp3", "12 You Suffer.mp3", "But why?"))),
+          d("Nirvana", d("Nevermind", f("audio/mp3", "3 Lithium.mp3", "Grunge")))),
+        d("Q", d("Queen", d("Flash Gordon", f("audio/mp3", "1 Flash's Theme.mp3", "Flash")))))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Napalm Death", "Scum", 12, "You Suffer.mp3", "But why?"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew"),
+      FR("Napalm Death", "Scum", 12, "You Suffer.mp3")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).reconcile(
+        fs, changesClient, listener, removeUnknownMusic = true)
+    "only download music that is missing" in {
+      changesClient.musicDownloaded must be_==(Seq(RelativePath("S/Slayer/Reign in Blood/5 Jesus Saves.mp3")))
+    }
+    "remove music that should not be on the device and add music that is missing" in {
+      fs.flatten must be_==(Seq(
+        "/",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/", "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+    }
+    "log removals before additions" in {
+      listener.log must be_==(Seq(
+        "START",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|0|3", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|0|3",
+        "REMOVING|N/Nirvana/Nevermind/3 Lithium.mp3|1|3", "REMOVED|N/Nirvana/Nevermind/3 Lithium.mp3|1|3",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|2|3",
+        "FINISHED|3"))
+    }
+    "identify the number of changes made" in {
+      result must beRight(3)
+    }
+  }
+
+  "Reconciling a fresh device that already has unrelated music on it" should {
+    val fs: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""),
+        d("M", d("My Band", d("Demo", f("audio/mp3", "1 Garage.mp3", "Noise")))),
+        d("Q", d("Queen", d("Flash Gordon", f("audio/mp3", "1 Flash's Theme.mp3", "Flash")))))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    val listener = new LoggingDeviceListener()
+    val result: Either[(Exception, Option[Int]), Int] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).reconcile(
+        fs, changesClient, listener, removeUnknownMusic = false)
+    "not remove any music that the server does not know about" in {
+      fs.flatten must be_==(Seq(
+        "/",
+        "/M/", "/M/My Band/", "/M/My Band/Demo/", "/M/My Band/Demo/1 Garage.mp3 audio/mp3 Some(Noise)",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/", "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+    }
+    "report the music that the server does not know about" in {
+      listener.log must be_==(Seq(
+        "START",
+        "UNKNOWN|M/My Band/Demo/1 Garage.mp3",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|0|1", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|0|1",
+        "FINISHED|1"))
+    }
+    "identify the number of changes made" in {
+      result must beRight(1)
+    }
+  }
+
+  "Adding changes to more than one device" should {
+    val fresh: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val continuing: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex", "offset": 1}"""),
+        d("Q", d("Queen", d("Flash Gordon", f("audio/mp3", "1 Flash's Theme.mp3", "Flash")))))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew"),
+      FR("Napalm Death", "Scum", 12, "You Suffer.mp3")
+    )
+    val freshListener = new LoggingDeviceListener()
+    val continuingListener = new LoggingDeviceListener()
+    val results: Seq[Either[(Exception, Option[Int]), Int]] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).synchroniseAll(
+        Seq(
+          SynchronisationTarget(fresh, DeviceDescriptor("alex", Extension.MP3, None, None), freshListener),
+          SynchronisationTarget(continuing, DeviceDescriptor("alex", Extension.MP3, None, Some(1)), continuingListener)),
+        changesClient)
+    "download each track only once" in {
+      changesClient.musicDownloaded must be_==(Seq(
+        RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"),
+        RelativePath("S/Slayer/Reign in Blood/5 Jesus Saves.mp3")))
+    }
+    "write each track to every device that needs it" in {
+      fresh.flatten must be_==(Seq(
+        "/",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/", "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash!)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+      continuing.flatten must be_==(Seq(
+        "/",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/", "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+    }
+    "log progress for each device separately" in {
+      freshListener.log must be_==(Seq(
+        "START",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|3", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|3",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|3", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|3",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|2|3", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|2|3",
+        "FINISHED|3"))
+      continuingListener.log must be_==(Seq(
+        "START",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|3", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|3",
+        "REMOVING|N/Napalm Death/Scum/12 You Suffer.mp3|2|3", "REMOVED|N/Napalm Death/Scum/12 You Suffer.mp3|2|3",
+        "FINISHED|3"))
+    }
+    "identify the number of changes made for each device" in {
+      results must be_==(Seq(Right(3), Right(3)))
+    }
+  }
+
+  "Adding changes to more than one device when one cannot be written to" should {
+    val working: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val full: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    val workingListener = new LoggingDeviceListener()
+    val fullListener = new LoggingDeviceListener()
+    val results: Seq[Either[(Exception, Option[Int]), Int]] =
+      new DeviceImpl[FauxFile](new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance).synchroniseAll(
+        Seq(
+          SynchronisationTarget(working, DeviceDescriptor("alex", Extension.MP3, None, None), workingListener),
+          SynchronisationTarget(full, DeviceDescriptor("alex", Extension.MP3, None, None), fullListener)),
+        changesClient)(FauxFile.FauxResource, new FullDeviceResourceStreamProvider(full), global)
+    "carry on writing to the device that works" in {
+      working.flatten must be_==(Seq(
+        "/",
+        "/Q/", "/Q/Queen/", "/Q/Queen/Flash Gordon/", "/Q/Queen/Flash Gordon/1 Flash's Theme.mp3 audio/mp3 Some(Flash!)",
+        "/S/", "/S/Slayer/", "/S/Slayer/Reign in Blood/", "/S/Slayer/Reign in Blood/5 Jesus Saves.mp3 audio/mp3 Some(Phew)",
+        """/device.json application/json Some({"user":"alex","extension":"mp3","lastModified":"2017-03-13T22:05:01Z"})"""))
+      workingListener.log must be_==(Seq(
+        "START",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|2", "ADDED|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|2",
+        "ADDING|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|2", "ADDED|S/Slayer/Reign in Blood/5 Jesus Saves.mp3|1|2",
+        "FINISHED|2"))
+    }
+    "only fail the device that could not be written to" in {
+      fullListener.log must be_==(Seq(
+        "START",
+        "ADDING|Q/Queen/Flash Gordon/1 Flash's Theme.mp3|0|2",
+        "FAILED|0"))
+      results.head must beRight(2)
+      results.last must beLeft.like {
+        case (e: Exception, maybeIdx: Option[Int]) => (e.getMessage must be_==("Device full")) and (maybeIdx must beSome(0))
+      }
+    }
+    "still download each track only once" in {
+      changesClient.musicDownloaded must be_==(Seq(
+        RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"),
+        RelativePath("S/Slayer/Reign in Blood/5 Jesus Saves.mp3")))
+    }
+  }
+
+  "Adding changes to more than one device with a balanced durability policy" should {
+    val first: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val second: Directory =
+      d.root(
+        f("application/json", "device.json", """{"user": "alex"}"""))
+    val changesClient = FauxChangesClient(
+      "2017-03-13T22:04:01Z",
+      FA("Queen", "Flash Gordon", 1, "Flash's Theme.mp3", "Flash!"),
+      FA("Queen", "Flash Gordon", 2, "In the Space Capsule.mp3", "Bleep"),
+      FA("Slayer", "Reign in Blood", 5, "Jesus Saves.mp3", "Phew")
+    )
+    val syncListener = new LoggingDeviceListener()
+    val results: Seq[Either[(Exception, Option[Int]), Int]] =
+      new DeviceImpl[FauxFile](
+        new CirceCodec, now("2017-03-13T22:05:01Z"), NoOpFaultTolerance,
+        durabilityPolicy = DurabilityPolicy.balanced).synchroniseAll(
+        Seq(
+          SynchronisationTarget(first, DeviceDescriptor("alex", Extension.MP3, None, None), new LoggingDeviceListener()),
+          SynchronisationTarget(second, DeviceDescriptor("alex", Extension.MP3, None, None), new LoggingDeviceListener())),
+        changesClient)(FauxFile.FauxResource, new SyncLoggingResourceStreamProvider(syncListener), global)
+    "force each album to every device and record progress before starting the next" in {
+      val albumSyncs: Seq[String] = Seq(
+        "SYNC|/Q/Queen/Flash Gordon/1 Flash's Theme.mp3|/Q/Queen/Flash Gordon/2 In the Space Capsule.mp3",
+        "SYNC|/device.json")
+      val finalSyncs: Seq[String] = Seq(
+        "SYNC|/S/Slayer/Reign in Blood/5 Jesus Saves.mp3",
+        "SYNC|/device.json")
+      syncListener.log must be_==(albumSyncs ++ albumSyncs ++ finalSyncs ++ finalSyncs)
+    }
+    "identify the number of changes made for each device" in {
+      results must be_==(Seq(Right(3), Right(3)))
+    }
+  }
+
   implicit def stringToInstant(str: String): Instant = {
     DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone(ZoneId.systemDefault()).parse(str, Instant.FROM)
   }
 
   def now(instant: Instant): Clock = Clock.fixed(instant, ZoneId.systemDefault())
 
+  class FullDeviceResourceStreamProvider(fullRoot: FauxFile) extends ResourceStreamProvider[FauxFile] {
+
+    def rootOf(fauxFile: FauxFile): FauxFile = fauxFile.maybeParent.map(rootOf).getOrElse(fauxFile)
+
+    override def provideInputStream(fauxFile: FauxFile): Try[InputStream] =
+      FauxFile.FauxResourceStreamProvider.provideInputStream(fauxFile)
+
+    override def provideOutputStream(fauxFile: FauxFile): Try[OutputStream] = {
+      if ((rootOf(fauxFile) eq fullRoot) && fauxFile.name.endsWith(".mp3")) {
+        Success(new OutputStream {
+          override def write(b: Int): Unit = throw new IOException("Device full")
+        })
+      }
+      else {
+        FauxFile.FauxResourceStreamProvider.provideOutputStream(fauxFile)
+      }
+    }
+  }
+
+  class SyncLoggingResourceStreamProvider(listener: LoggingDeviceListener) extends ResourceStreamProvider[FauxFile] {
+
+    override def provideInputStream(fauxFile: FauxFile): Try[InputStream] =
+      FauxFile.FauxResourceStreamProvider.provideInputStream(fauxFile)
+
+    override def provideOutputStream(fauxFile: FauxFile): Try[OutputStream] =
+      FauxFile.FauxResourceStreamProvider.provideOutputStream(fauxFile)
+
+    override def sync(fauxFiles: Seq[FauxFile]): Try[Unit] = Success {
+      listener.add("SYNC" +: fauxFiles.map(_.toString): _*)
+    }
+  }
+
   class LoggingDeviceListener extends DeviceListener[FauxFile] {
     val log: mutable.Buffer[String] = mutable.Buffer.empty[String]
 
+    var maybeMetrics: Option[SyncMetrics] = None
+
+    override def synchronisingMeasured(metrics: SyncMetrics): Unit = {
+      maybeMetrics = Some(metrics)
+    }
+
     def add(strs: Any*): Unit = {
       log += strs.mkString("|")
     }
@@ -257,6 +767,10 @@ class DeviceImplSpec extends Specification {
       add(Seq("FAILED") ++ maybeIdx :_*)
     }
 
+    override def unknownMusicFound(relativePaths: Seq[RelativePath]): Unit = {
+      relativePaths.foreach(relativePath => add("UNKNOWN", relativePath))
+    }
+
     override def synchronisingFinished(count: Int): Unit = {
       add("FINISHED", count)
     }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.nio.ByteBuffer
+
+import devsync.json.RelativePath
+import org.specs2.mutable.Specification
+import org.threeten.bp.Instant
+
+class DeviceIndexSpec extends Specification {
+
+  val queen = IndexEntry(RelativePath("Q/Queen/Flash Gordon/1 Flash's Theme.mp3"), 100, "v1", Instant.ofEpochMilli(1000))
+  val slayer = IndexEntry(RelativePath("S/Slayer/Reign in Blood/5 Jesus Saves.mp3"), 200, "v2", Instant.ofEpochMilli(2000))
+  val motorhead = IndexEntry(RelativePath("M/Motörhead/Ace of Spades/1 Ace of Spades.mp3"), 300, "v3", Instant.ofEpochMilli(3000))
+  val napalmDeath = IndexEntry(RelativePath("N/Napalm Death/Scum/12 You Suffer.mp3"), 400, "v4", Instant.ofEpochMilli(4000))
+
+  def index(entries: IndexEntry*): DeviceIndex = DeviceIndex(ByteBuffer.wrap(DeviceIndex.encode(entries))).get
+
+  "Reading an index" should {
+    val deviceIndex = index(slayer, queen, motorhead, napalmDeath)
+    "find every entry" in {
+      deviceIndex.find(queen.relativePath) must beSome(queen)
+      deviceIndex.find(slayer.relativePath) must beSome(slayer)
+      deviceIndex.find(motorhead.relativePath) must beSome(motorhead)
+      deviceIndex.find(napalmDeath.relativePath) must beSome(napalmDeath)
+    }
+    "not find missing entries" in {
+      deviceIndex.find(RelativePath("N/Nirvana/Nevermind/3 Lithium.mp3")) must beNone
+      deviceIndex.find(RelativePath("Q/Queen/Flash Gordon")) must beNone
+    }
+    "list entries in path order" in {
+      deviceIndex.entries must be_==(Seq(motorhead, napalmDeath, queen, slayer))
+    }
+  }
+
+  "Writing an index with more than one entry for a path" should {
+    val newQueen = queen.copy(validator = "v5")
+    "keep only the last entry" in {
+      index(queen, slayer, newQueen).entries must be_==(Seq(newQueen, slayer))
+    }
+  }
+
+  "Reading an empty index" should {
+    "find nothing" in {
+      index().find(queen.relativePath) must beNone
+    }
+  }
+
+  "Reading something that is not an index" should {
+    "fail" in {
+      DeviceIndex(ByteBuffer.wrap("""{"user": "alex"}""".getBytes("UTF-8"))) must beFailedTry
+    }
+    "fail if truncated" in {
+      val data = DeviceIndex.encode(Seq(queen, slayer))
+      DeviceIndex(ByteBuffer.wrap(data.take(20))) must beFailedTry
+    }
+    "fail if the paths and validators are truncated" in {
+      val data = DeviceIndex.encode(Seq(queen, slayer))
+      DeviceIndex(ByteBuffer.wrap(data.dropRight(1))) must beFailedTry
+    }
+    "fail if a record points outside of the index" in {
+      val buffer = ByteBuffer.wrap(DeviceIndex.encode(Seq(queen, slayer)))
+      // Corrupt the length of the second entry's path.
+      buffer.putInt(12 + 32 + 4, Int.MaxValue)
+      DeviceIndex(buffer) must beFailedTry
+    }
+  }
+
+  "Merging updates in to an index" should {
+    val newQueen = queen.copy(validator = "v5")
+    val merged = DeviceIndex(ByteBuffer.wrap(DeviceIndex.merge(
+      index(queen, slayer, napalmDeath),
+      Seq(slayer.relativePath -> None, motorhead.relativePath -> Some(motorhead), queen.relativePath -> Some(newQueen))))).get
+    "add, replace and remove entries whilst keeping them in path order" in {
+      merged.entries must be_==(Seq(motorhead, napalmDeath, newQueen))
+    }
+    "still find every entry" in {
+      merged.find(newQueen.relativePath) must beSome(newQueen)
+      merged.find(motorhead.relativePath) must beSome(motorhead)
+      merged.find(slayer.relativePath) must beNone
+    }
+  }
+}
@@ -21,9 +21,10 @@ import java.net.URL
 
 import cats.syntax.either._
 import devsync.json._
-import devsync.remote.ChangesClient
+import devsync.remote.{ChangesClient, ChecksumMismatchException}
 import org.threeten.bp.Instant
 
+import scala.collection.mutable
 import scala.util.{Failure, Success, Try}
 
 /**
@@ -67,16 +68,44 @@ case class FauxChangesClient(now: Instant, changes: FauxChange*) extends Changes
     Changes(realChanges)
   }
 
+  val pagesRequested: mutable.Buffer[Int] = mutable.Buffer.empty[Int]
+
+  /**
+    * Get a page of the changes for a user since a specific date.
+    */
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant], page: Int, pageSize: Int): Try[ChangesPage] = {
+    pagesRequested.synchronized {
+      pagesRequested += page
+    }
+    super.changesSince(user, extension, maybeSince, page, pageSize)
+  }
+
   /**
     * Count the number of changelog items for a user since a specific date
     */
   override def changelogSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changelog] =
     Failure(new Exception())
 
+  val musicDownloaded: mutable.Buffer[RelativePath] = mutable.Buffer.empty[RelativePath]
+
+  /**
+    * The number of times each track should be corrupted when it is downloaded.
+    */
+  val corruptions: mutable.Map[RelativePath, Int] = mutable.Map.empty[RelativePath, Int]
+
   override def music(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit] = {
+    val corrupt: Boolean = musicDownloaded.synchronized {
+      musicDownloaded += item.relativePath
+      val remainingCorruptions: Int = corruptions.getOrElse(item.relativePath, 0)
+      corruptions.put(item.relativePath, remainingCorruptions - 1)
+      remainingCorruptions > 0
+    }
     findChange(item.relativePath).flatMap { fa =>
       IO.closing(new ByteArrayInputStream(fa.content.getBytes("UTF-8"))) { in =>
         IO.copy(in, out)
+        if (corrupt) {
+          throw ChecksumMismatchException(item.links.music, "good", "bad")
+        }
       }
     }
   }
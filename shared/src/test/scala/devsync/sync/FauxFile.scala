@@ -117,6 +117,20 @@ object FauxFile {
       }
     }
 
+    override def children(fauxFile: FauxFile): Seq[FauxFile] = fauxFile match {
+      case d: Directory => d.children.toList
+      case _ => Seq.empty
+    }
+
+    override def isDirectory(fauxFile: FauxFile): Boolean = fauxFile.isInstanceOf[Directory]
+
+    override def name(fauxFile: FauxFile): String = fauxFile.name
+
+    override def size(fauxFile: FauxFile): Long = fauxFile match {
+      case f: File => f.content.map(_.getBytes("UTF-8").length.toLong).getOrElse(0L)
+      case _ => 0L
+    }
+
     override def findOrCreateResource(fauxFile: FauxFile, mimeType: String, name: String): Try[FauxFile] = {
       fauxFile match {
         case d : Directory => Success(d.createFile(mimeType, name))
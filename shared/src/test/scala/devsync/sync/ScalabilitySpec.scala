@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.{AbstractExecutorService, ExecutorService, TimeUnit}
+
+import devsync.json._
+import org.specs2.execute.Result
+import org.specs2.mutable.Specification
+import org.threeten.bp.{Clock, Instant, ZoneId}
+
+import scala.collection.mutable
+import scala.concurrent.ExecutionContext
+
+/**
+  * Make sure that the cost of synchronising a device grows no faster than the number of changes. Each run
+  * synchronises an empty in-memory device with a synthetic library and the number of device operations, and the
+  * bytes allocated, per change are checked against a budget for each configuration. Everything, including
+  * downloading pages of changes, runs on the calling thread so that every allocation is counted.
+  *
+  * The largest library is tagged as slow and is only synchronised when the SLOW_TESTS environment variable is set.
+  **/
+class ScalabilitySpec extends Specification {
+
+  sequential
+
+  import ScalabilitySpec._
+
+  /**
+    * Libraries small enough to synchronise in every test run.
+    */
+  val sizes: Seq[Int] = Seq(1000, 10000)
+
+  /**
+    * A library large enough to show any growth in cost that the smaller ones hide.
+    */
+  val largeSize: Int = 100000
+
+  // In each group of ten synthetic changes, nine tracks are added to one album and one is removed from it. Adding
+  // a track costs findOrCreateResource, provideOutputStream and write. Creating an album's directories costs three
+  // mkdirs, once per album. Removing a track that is on the device costs find, exists, remove, parent and isEmpty.
+  // The directory and album schedulers drop additions that are later removed, leaving eight additions and a removal
+  // that only costs a find. Forcing each album costs a sync of its tracks plus writing and syncing the device
+  // descriptor: five operations.
+  val configurations: Seq[Configuration] = Seq(
+    Configuration(
+      "in timestamp order", ChangeScheduler.timestampOrder, DurabilityPolicy.fast, useDeviceIndex = false,
+      expectedOperationsPerChange = (9 * 3 + 3 + 5) / 10.0, allocationBudget = 8 * 1024),
+    Configuration(
+      "in directory order", ChangeScheduler.directoryLocality, DurabilityPolicy.fast, useDeviceIndex = false,
+      expectedOperationsPerChange = (8 * 3 + 3 + 1) / 10.0, allocationBudget = 8 * 1024),
+    Configuration(
+      "newest album first with a device index and balanced durability",
+      ChangeScheduler.newestAlbumFirst, DurabilityPolicy.balanced, useDeviceIndex = true,
+      expectedOperationsPerChange = (8 * 3 + 3 + 1 + 5) / 10.0, allocationBudget = 32 * 1024))
+
+  configurations.foreach { configuration =>
+    val runs: mutable.Map[Int, Run] = mutable.Map.empty
+    def runOf(size: Int): Run = runs.getOrElseUpdate(size, run(size, configuration))
+
+    s"Synchronising a large library ${configuration.name}" should {
+      sizes.foreach { size =>
+        budgetExamples(configuration, size, runOf)
+      }
+      growthExamples(sizes.head, sizes.last, runOf)
+      section("slow")
+      budgetExamples(configuration, largeSize, runOf)
+      growthExamples(sizes.head, largeSize, runOf)
+      section("slow")
+    }
+  }
+
+  def budgetExamples(configuration: Configuration, size: Int, runOf: Int => Run): Unit = {
+    val operationBudget: String = f"${configuration.operationBudget}%.2f"
+    s"synchronise all $size changes" in {
+      runOf(size).result must beRight(size)
+    }
+    s"make no more than $operationBudget device operations per change for $size changes" in {
+      runOf(size).operationsPerChange must be_<=(configuration.operationBudget)
+    }
+    s"only create directories for new albums and after removals for $size changes" in {
+      val r: Run = runOf(size)
+      r.counts("mkdir") must be_<=(3L * (r.albums + r.removals))
+    }
+    s"allocate no more than ${configuration.allocationBudget} bytes per change for $size changes" in {
+      whenAllocationsAreCounted(runOf(size)) { bytesPerChange =>
+        (bytesPerChange must be_<=(configuration.allocationBudget.toDouble)).toResult
+      }
+    }
+  }
+
+  def growthExamples(smallSize: Int, biggerSize: Int, runOf: Int => Run): Unit = {
+    s"make no more operations per change for $biggerSize changes than for $smallSize" in {
+      runOf(biggerSize).operationsPerChange must be_<=(runOf(smallSize).operationsPerChange * 1.1)
+    }
+    s"allocate no more per change for $biggerSize changes than for $smallSize" in {
+      // The small library is run first, before the JIT has done its work, so it is the more expensive per change.
+      whenAllocationsAreCounted(runOf(smallSize)) { smallBytesPerChange =>
+        whenAllocationsAreCounted(runOf(biggerSize)) { biggerBytesPerChange =>
+          (biggerBytesPerChange must be_<=(smallBytesPerChange * 1.5)).toResult
+        }
+      }
+    }
+  }
+
+  /**
+    * Check the bytes allocated per change or skip the check if the JVM cannot count them.
+    */
+  def whenAllocationsAreCounted(run: Run)(check: Double => Result): Result = run.maybeAllocatedBytesPerChange match {
+    case Some(bytesPerChange) => check(bytesPerChange)
+    case None => skipped("This JVM cannot count the bytes allocated by a thread")
+  }
+}
+
+object ScalabilitySpec {
+
+  /**
+    * How much the operations per change may exceed what is expected before the budget is broken.
+    */
+  val OPERATION_MARGIN: Double = 1.1
+
+  val start: Instant = Instant.parse("2017-03-13T22:05:01Z")
+
+  /**
+    * How a device is synchronised and what it should cost.
+    * @param expectedOperationsPerChange The number of device operations each change should need.
+    * @param allocationBudget The maximum average number of bytes allocated for each change.
+    */
+  case class Configuration(
+                            name: String,
+                            changeScheduler: ChangeScheduler,
+                            durabilityPolicy: DurabilityPolicy,
+                            useDeviceIndex: Boolean,
+                            expectedOperationsPerChange: Double,
+                            allocationBudget: Long) {
+
+    /**
+      * The maximum average number of device operations for each change.
+      */
+    val operationBudget: Double = expectedOperationsPerChange * OPERATION_MARGIN
+  }
+
+  /**
+    * An executor service that runs everything on the calling thread.
+    */
+  object SameThreadExecutorService extends AbstractExecutorService {
+    override def execute(command: Runnable): Unit = command.run()
+    override def shutdown(): Unit = {}
+    override def shutdownNow(): java.util.List[Runnable] = java.util.Collections.emptyList()
+    override def isShutdown: Boolean = false
+    override def isTerminated: Boolean = false
+    override def awaitTermination(timeout: Long, unit: TimeUnit): Boolean = true
+  }
+
+  implicit val sameThreadExecutionContext: ExecutionContext = ExecutionContext.fromExecutorService(SameThreadExecutorService)
+
+  case class Run(
+                  result: Either[(Exception, Option[Int]), Int],
+                  counts: OperationCounts,
+                  size: Int,
+                  albums: Int,
+                  removals: Int,
+                  maybeAllocatedBytes: Option[Long]) {
+
+    def operationsPerChange: Double = counts.total.toDouble / size
+
+    def maybeAllocatedBytesPerChange: Option[Double] = maybeAllocatedBytes.map(_.toDouble / size)
+  }
+
+  /**
+    * Run a block of code and count the bytes it allocates on the current thread, if the JVM can tell. Counting is
+    * switched on only for as long as the block runs.
+    */
+  def countingAllocations[T](block: => T): (T, Option[Long]) = ManagementFactory.getThreadMXBean match {
+    case bean: com.sun.management.ThreadMXBean if bean.isThreadAllocatedMemorySupported =>
+      val wasEnabled: Boolean = bean.isThreadAllocatedMemoryEnabled
+      bean.setThreadAllocatedMemoryEnabled(true)
+      try {
+        val threadId: Long = Thread.currentThread().getId
+        val before: Long = bean.getThreadAllocatedBytes(threadId)
+        val result: T = block
+        (result, Some(bean.getThreadAllocatedBytes(threadId) - before))
+      }
+      finally {
+        bean.setThreadAllocatedMemoryEnabled(wasEnabled)
+      }
+    case _ => (block, None)
+  }
+
+  def run(size: Int, configuration: Configuration): Run = {
+    val counts = new OperationCounts
+    implicit val countingResource: CountingResource = new CountingResource(counts)
+    val root: MemoryNode = countingResource.root("device.json" -> """{"user": "alex"}""")
+    val changesClient = new SyntheticChangesClient(size, start)
+    val device = new DeviceImpl[MemoryNode](
+      new CirceCodec,
+      Clock.fixed(start.plusSeconds(size), ZoneId.systemDefault()),
+      NoOpFaultTolerance,
+      changeScheduler = configuration.changeScheduler,
+      durabilityPolicy = configuration.durabilityPolicy,
+      useDeviceIndex = configuration.useDeviceIndex) {
+      override protected def newPageLoader(): ExecutorService = SameThreadExecutorService
+    }
+    val (result, maybeAllocatedBytes) = countingAllocations {
+      device.synchronise(root, changesClient, new SilentDeviceListener)
+    }
+    Run(result, counts, size, changesClient.albums, changesClient.removals, maybeAllocatedBytes)
+  }
+
+  class SilentDeviceListener extends DeviceListener[MemoryNode] {
+    override def synchronisingStarting(): Unit = {}
+
+    override def addingMusic(
+                              addition: Addition,
+                              maybeTags: Option[Tags],
+                              maybeArtwork: Option[Array[Byte]],
+                              overallProgress: Progress): Unit = {}
+
+    override def musicAdded(
+                             addition: Addition,
+                             maybeTags: Option[Tags],
+                             maybeArtwork: Option[Array[Byte]],
+                             overallProgress: Progress,
+                             resource: MemoryNode): Unit = {}
+
+    override def removingMusic(removal: Removal, overallProgress: Progress): Unit = {}
+
+    override def musicRemoved(removal: Removal, overallProgress: Progress): Unit = {}
+
+    override def synchronisingFailed(e: Exception, maybeIdx: Option[Int]): Unit = {}
+
+    override def synchronisingFinished(count: Int): Unit = {}
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Alex Jones
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package devsync.sync
+
+import java.io.OutputStream
+import java.net.URL
+
+import devsync.json._
+import devsync.remote.ChangesClient
+import org.threeten.bp.Instant
+
+import scala.util.{Failure, Success, Try}
+
+/**
+  * A changes client that generates a large library of changes. Tracks are added ten to an album and ten albums to
+  * an artist, and every tenth change removes a track that was added five changes earlier.
+  * @param size The number of changes to generate.
+  * @param start The time of the first change.
+  **/
+class SyntheticChangesClient(size: Int, start: Instant) extends ChangesClient {
+
+  private val url = new URL("http://localhost/synthetic")
+  private val links = Links(url, url, url)
+  private val notAvailable = new Exception("Not available")
+  private val content: Array[Byte] = Array.fill[Byte](SyntheticChangesClient.TRACK_SIZE)(0)
+
+  private def path(idx: Int): RelativePath = {
+    val artist: String = f"Artist ${idx / 100}%05d"
+    RelativePath(Seq(artist.substring(0, 1), artist, f"Album ${idx / 10 % 10}%02d", f"${idx % 10}%02d Track.mp3"))
+  }
+
+  val changes: IndexedSeq[Change] = Range(0, size).map { idx =>
+    val at: Instant = start.plusSeconds(idx)
+    if (idx % 10 == 9) Removal(path(idx - 5), at) else Addition(path(idx), at, links)
+  }
+
+  /**
+    * The number of distinct albums that tracks are added to.
+    */
+  val albums: Int = changes.collect { case a: Addition => a.relativePath.maybeParent }.distinct.size
+
+  /**
+    * The number of removals.
+    */
+  val removals: Int = changes.count(_.isInstanceOf[Removal])
+
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changes] =
+    Success(Changes(changes))
+
+  override def changesSince(user: String, extension: Extension, maybeSince: Option[Instant], page: Int, pageSize: Int): Try[ChangesPage] =
+    Success(ChangesPage(changes.slice(page * pageSize, (page + 1) * pageSize), changes.size))
+
+  override def changelogSince(user: String, extension: Extension, maybeSince: Option[Instant]): Try[Changelog] =
+    Failure(notAvailable)
+
+  override def music(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit] = Try(out.write(content))
+
+  override def tags(item: HasLinks with HasRelativePath): Try[Tags] = Failure(notAvailable)
+
+  override def artwork(item: HasLinks with HasRelativePath, out: OutputStream): Try[Unit] = Failure(notAvailable)
+}
+
+object SyntheticChangesClient {
+
+  /**
+    * The number of bytes in each synthetic track.
+    */
+  val TRACK_SIZE: Int = 1024
+}
@@ -3,6 +3,7 @@ package uk.co.unclealex.sync.devicesynchroniser;
 import android.content.Context;
 import dagger.Module;
 import dagger.Provides;
+import uk.co.unclealex.sync.devicesynchroniser.cache.CacheModule;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangeServiceImpl;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangesModule;
 import uk.co.unclealex.sync.devicesynchroniser.dates.DateModule;
@@ -29,7 +30,8 @@ import javax.inject.Singleton;
                 IoModule.class,
                 TagsModule.class,
                 DateModule.class,
-                ChangesModule.class
+                ChangesModule.class,
+                CacheModule.class
         }
 
 )
@@ -0,0 +1,25 @@
+package uk.co.unclealex.sync.devicesynchroniser.cache;
+
+import android.content.Context;
+import dagger.Module;
+import dagger.Provides;
+import uk.co.unclealex.sync.devicesynchroniser.tags.TagsService;
+
+import javax.inject.Singleton;
+
+/**
+ * Provides the caches used to load changelog item tags and cover art.
+ */
+@Module(
+        complete = false,
+        library = true
+)
+public class CacheModule {
+
+    @Provides
+    @Singleton
+    public ChangelogItemLoader provideChangelogItemLoader(Context context, TagsService tagsService) {
+        return new ChangelogItemLoaderImpl(context, tagsService);
+    }
+
+}
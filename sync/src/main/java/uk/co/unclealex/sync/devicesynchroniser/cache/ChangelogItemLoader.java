@@ -0,0 +1,29 @@
+package uk.co.unclealex.sync.devicesynchroniser.cache;
+
+import android.graphics.Bitmap;
+import uk.co.unclealex.sync.devicesynchroniser.changes.ChangelogItem;
+import uk.co.unclealex.sync.devicesynchroniser.tags.Tags;
+
+/**
+ * Load the tags and cover art for changelog items, caching them both in memory and on disk.
+ */
+public interface ChangelogItemLoader {
+
+    /**
+     * Load the tags and cover art for a changelog item. Callbacks are always made on the main thread.
+     * @param changelogItem The changelog item to load.
+     * @param coverArtSize The size, in pixels, of the square the cover art will be shown in.
+     * @param callback The callback to be told about loaded tags and cover art.
+     * @return A request that can be cancelled if the result is no longer needed.
+     */
+    Request load(ChangelogItem changelogItem, int coverArtSize, Callback callback);
+
+    interface Callback {
+        void onTagsLoaded(Tags tags);
+        void onCoverArtLoaded(Bitmap coverArt);
+    }
+
+    interface Request {
+        void cancel();
+    }
+}
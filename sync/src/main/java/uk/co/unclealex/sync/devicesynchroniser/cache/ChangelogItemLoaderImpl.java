@@ -0,0 +1,280 @@
+package uk.co.unclealex.sync.devicesynchroniser.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import org.json.JSONException;
+import org.json.JSONObject;
+import uk.co.unclealex.sync.devicesynchroniser.changes.ChangelogItem;
+import uk.co.unclealex.sync.devicesynchroniser.changes.RelativePath;
+import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
+import uk.co.unclealex.sync.devicesynchroniser.tags.Tags;
+import uk.co.unclealex.sync.devicesynchroniser.tags.TagsService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The default implementation of {@link ChangelogItemLoader}.
+ */
+public class ChangelogItemLoaderImpl implements ChangelogItemLoader {
+
+    private static final String TAG = ChangelogItemLoaderImpl.class.getSimpleName();
+
+    private static final int THREAD_COUNT = 3;
+    private static final int MAX_MEMORY_TAGS = 256;
+    private static final int MAX_MEMORY_COVER_ART_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 20 * 1024 * 1024;
+
+    private static final Request NO_REQUEST = new Request() {
+        @Override
+        public void cancel() {
+            // Nothing to cancel.
+        }
+    };
+
+    private final TagsService tagsService;
+    private final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Tags> tagsCache = new LruCache<String, Tags>(MAX_MEMORY_TAGS);
+    private final LruCache<String, Bitmap> coverArtCache = new LruCache<String, Bitmap>(MAX_MEMORY_COVER_ART_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    private final DiskLruCache diskCache;
+
+    public ChangelogItemLoaderImpl(Context context, TagsService tagsService) {
+        this.tagsService = tagsService;
+        this.diskCache = new DiskLruCache(new File(context.getCacheDir(), "changelog"), MAX_DISK_BYTES);
+    }
+
+    @Override
+    public Request load(ChangelogItem changelogItem, int coverArtSize, Callback callback) {
+        Tags tags = tagsCache.get(tagsKey(changelogItem));
+        if (tags != null && tags.getCoverArt() == null) {
+            callback.onTagsLoaded(tags);
+            return NO_REQUEST;
+        }
+        Bitmap coverArt = tags == null ? null : coverArtCache.get(coverArtKey(tags, coverArtSize));
+        if (coverArt != null) {
+            callback.onTagsLoaded(tags);
+            callback.onCoverArtLoaded(coverArt);
+            return NO_REQUEST;
+        }
+        LoadTask loadTask = new LoadTask(changelogItem, coverArtSize, callback);
+        loadTask.future = executorService.submit(loadTask);
+        return loadTask;
+    }
+
+    protected Tags loadTags(ChangelogItem changelogItem) throws IOException, NotInitialisedException {
+        RelativePath relativePath = changelogItem.getRelativePath();
+        String key = tagsKey(changelogItem);
+        Tags tags = tagsCache.get(key);
+        if (tags != null) {
+            return tags;
+        }
+        byte[] data = diskCache.get(key);
+        if (data != null) {
+            try {
+                JSONObject obj = new JSONObject(new String(data, "UTF-8"));
+                String coverArt = obj.optString("coverArt", null);
+                tags = Tags.of(obj, coverArt == null ? null : Uri.parse(coverArt));
+            } catch (JSONException e) {
+                Log.w(TAG, "Ignoring corrupt cached tags for " + relativePath, e);
+            }
+        }
+        if (tags == null) {
+            tags = tagsService.loadTags(relativePath);
+            try {
+                JSONObject obj = new JSONObject();
+                obj.put("albumArtist", tags.getAlbumArtist());
+                obj.put("album", tags.getAlbum());
+                if (tags.getCoverArt() != null) {
+                    obj.put("coverArt", tags.getCoverArt().toString());
+                }
+                diskCache.put(key, obj.toString().getBytes("UTF-8"));
+            } catch (JSONException e) {
+                Log.w(TAG, "Could not cache tags for " + relativePath, e);
+            }
+        }
+        tagsCache.put(key, tags);
+        return tags;
+    }
+
+    protected Bitmap loadCoverArt(Tags tags, int coverArtSize) throws IOException {
+        if (tags.getCoverArt() == null) {
+            return null;
+        }
+        String key = coverArtKey(tags, coverArtSize);
+        Bitmap coverArt = coverArtCache.get(key);
+        if (coverArt != null) {
+            return coverArt;
+        }
+        byte[] data = diskCache.get(key);
+        if (data != null) {
+            coverArt = BitmapFactory.decodeByteArray(data, 0, data.length);
+        }
+        if (coverArt == null) {
+            coverArt = downloadCoverArt(tags.getCoverArt(), coverArtSize);
+            if (coverArt == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            coverArt.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            diskCache.put(key, out.toByteArray());
+        }
+        coverArtCache.put(key, coverArt);
+        return coverArt;
+    }
+
+    /**
+     * Download cover art, decoding it no larger than needed and then scaling it to fill the requested square.
+     */
+    protected Bitmap downloadCoverArt(Uri coverArtUri, int coverArtSize) throws IOException {
+        byte[] data = download(coverArtUri);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (coverArtSize > 0 &&
+                options.outWidth / (sampleSize * 2) >= coverArtSize &&
+                options.outHeight / (sampleSize * 2) >= coverArtSize) {
+            sampleSize *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap sampledBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (sampledBitmap == null || coverArtSize <= 0) {
+            return sampledBitmap;
+        }
+        float factor = Math.max(
+                coverArtSize / (float) sampledBitmap.getWidth(),
+                coverArtSize / (float) sampledBitmap.getHeight());
+        Bitmap scaledBitmap = Bitmap.createScaledBitmap(
+                sampledBitmap,
+                Math.max(1, (int) (sampledBitmap.getWidth() * factor)),
+                Math.max(1, (int) (sampledBitmap.getHeight() * factor)),
+                true);
+        if (scaledBitmap != sampledBitmap) {
+            sampledBitmap.recycle();
+        }
+        return scaledBitmap;
+    }
+
+    protected byte[] download(Uri uri) throws IOException {
+        InputStream in = new URL(uri.toString()).openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    /**
+     * Key tags by when the track last changed as well as by its path so that retagged tracks are not served stale.
+     */
+    protected String tagsKey(ChangelogItem changelogItem) {
+        return "tags:" + changelogItem.getAt().getTime() + ":" + changelogItem.getRelativePath();
+    }
+
+    protected String coverArtKey(Tags tags, int coverArtSize) {
+        return "coverArt:" + coverArtSize + ":" + tags.getCoverArt();
+    }
+
+    class LoadTask implements Runnable, Request {
+
+        private final ChangelogItem changelogItem;
+        private final RelativePath relativePath;
+        private final int coverArtSize;
+        private final Callback callback;
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+
+        LoadTask(ChangelogItem changelogItem, int coverArtSize, Callback callback) {
+            this.changelogItem = changelogItem;
+            this.relativePath = changelogItem.getRelativePath();
+            this.coverArtSize = coverArtSize;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (cancelled) {
+                    return;
+                }
+                final Tags tags = loadTags(changelogItem);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onTagsLoaded(tags);
+                    }
+                });
+                if (cancelled) {
+                    return;
+                }
+                final Bitmap coverArt = loadCoverArt(tags, coverArtSize);
+                if (coverArt != null) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCoverArtLoaded(coverArt);
+                        }
+                    });
+                }
+            } catch (NotInitialisedException e) {
+                // The server has not been configured yet so there is nothing to show.
+            } catch (IOException e) {
+                if (!cancelled) {
+                    Log.w(TAG, "Could not load tags or cover art for " + relativePath, e);
+                }
+            }
+        }
+
+        protected void post(final Runnable runnable) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Future<?> currentFuture = future;
+            if (currentFuture != null) {
+                currentFuture.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package uk.co.unclealex.sync.devicesynchroniser.cache;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small least recently used cache of byte arrays stored as files in a directory.
+ */
+public class DiskLruCache {
+
+    private static final String TAG = DiskLruCache.class.getSimpleName();
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    public DiskLruCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create cache directory " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File left, File right) {
+                    return Long.valueOf(left.lastModified()).compareTo(right.lastModified());
+                }
+            });
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+    }
+
+    public synchronized byte[] get(String key) {
+        String name = nameOf(key);
+        if (entries.get(name) == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        try {
+            byte[] data = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read cache entry " + key, e);
+            remove(name);
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        String name = nameOf(key);
+        File tempFile = new File(directory, name + ".tmp");
+        File file = new File(directory, name);
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+            Long previousSize = entries.put(name, (long) data.length);
+            size += data.length - (previousSize == null ? 0 : previousSize);
+            trim();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write cache entry " + key, e);
+            tempFile.delete();
+        }
+    }
+
+    protected void trim() {
+        for (Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator(); size > maxSize && iter.hasNext(); ) {
+            Map.Entry<String, Long> entry = iter.next();
+            iter.remove();
+            size -= entry.getValue();
+            new File(directory, entry.getKey()).delete();
+        }
+    }
+
+    protected void remove(String name) {
+        Long previousSize = entries.remove(name);
+        if (previousSize != null) {
+            size -= previousSize;
+        }
+        new File(directory, name).delete();
+    }
+
+    protected byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    protected String nameOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported.", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
+        }
+    }
+}
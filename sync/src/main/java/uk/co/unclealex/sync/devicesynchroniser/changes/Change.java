@@ -1,8 +1,9 @@
 package uk.co.unclealex.sync.devicesynchroniser.changes;
 
+import android.util.JsonReader;
 import lombok.Value;
-import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.io.IOException;
 
 /**
  * A class to encapsulate a music file being added or removed.
@@ -15,8 +16,28 @@ public class Change {
         ADDED, REMOVED
     }
 
-    static Change of(JSONObject obj, String user) throws JSONException {
-        return new Change(Type.valueOf(obj.getString("action").toUpperCase()), RelativePath.of(obj.getString("relativePath")), user);
+    /**
+     * Read a change from the current object in a JSON stream.
+     */
+    static Change of(JsonReader reader, String user) throws IOException {
+        String action = null;
+        String relativePath = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("action".equals(name)) {
+                action = reader.nextString();
+            } else if ("relativePath".equals(name)) {
+                relativePath = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (action == null || relativePath == null) {
+            throw new IOException("A change must have both an action and a relative path.");
+        }
+        return new Change(Type.valueOf(action.toUpperCase()), RelativePath.of(relativePath), user);
     }
 
     private final Type type;
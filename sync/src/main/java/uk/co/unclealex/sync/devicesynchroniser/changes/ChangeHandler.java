@@ -0,0 +1,10 @@
+package uk.co.unclealex.sync.devicesynchroniser.changes;
+
+import java.io.IOException;
+
+/**
+ * Receive each {@link Change} as soon as it has been read from the server.
+ */
+public interface ChangeHandler {
+    void handle(Change change) throws IOException;
+}
@@ -1,19 +1,20 @@
 package uk.co.unclealex.sync.devicesynchroniser.changes;
 
+import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
+
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.List;
 
 /**
  * Created by alex on 25/12/14.
  */
 public interface ChangeService {
 
-    int countChangesSince(String user, String since) throws IOException;
+    int countChangesSince(String user, String since) throws IOException, NotInitialisedException;
 
-    List<Change> changesSince(String user, String since) throws IOException;
+    void changesSince(String user, String since, ChangeHandler changeHandler) throws IOException;
 
     void copyChange(Change change, OutputStream out) throws IOException;
 
-    void loadNextChangelogPage(Changelog changelog) throws IOException;
+    void loadNextChangelogPage(Changelog changelog, int pageSize) throws IOException;
 }
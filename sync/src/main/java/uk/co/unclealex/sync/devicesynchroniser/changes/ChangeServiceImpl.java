@@ -1,17 +1,21 @@
 package uk.co.unclealex.sync.devicesynchroniser.changes;
 
+import android.util.JsonReader;
 import lombok.RequiredArgsConstructor;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import uk.co.unclealex.sync.devicesynchroniser.dates.Iso8601;
 import uk.co.unclealex.sync.devicesynchroniser.io.Io;
+import uk.co.unclealex.sync.devicesynchroniser.io.ResponseReader;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -20,37 +24,57 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ChangeServiceImpl implements ChangeService {
 
-    private static final int PAGE_SIZE = 10;
+    private static final int MIN_PAGE_SIZE = 10;
 
     private final Io io;
     private final Preferences preferences;
     private final Iso8601 iso8601;
 
     @Override
-    public int countChangesSince(String user, String since) throws IOException {
+    public int countChangesSince(String user, String since) throws IOException, NotInitialisedException {
         try {
             JSONObject obj = io.loadJson("changes", "count", user, since);
             return obj.getInt("count");
         } catch (JSONException e) {
             throw new IOException("Cannot find out the number of changes for " + user + " since " + since, e);
-        } catch (NotInitialisedException e) {
-            return 0;
         }
     }
 
+    /**
+     * Changes are read straight from the response as it arrives and handed over one at a time, so that neither the
+     * raw response, a JSON tree of it nor a list of every change need to be held in memory.
+     */
     @Override
-    public List<Change> changesSince(String user, String since) throws IOException {
+    public void changesSince(final String user, String since, final ChangeHandler changeHandler) throws IOException {
         try {
-            JSONArray changesArray = io.loadJson("changes", user, since).getJSONArray("changes");
-            List<Change> changes = new ArrayList<Change>();
-            for (int idx = 0; idx < changesArray.length(); idx++) {
-                changes.add(Change.of(changesArray.getJSONObject(idx), user));
-            }
-            return changes;
-        } catch (JSONException e) {
-            throw new IOException("Could not parse JSON whilst loading changes", e);
+            io.loadStream(new ResponseReader<Void>() {
+                @Override
+                public Void read(InputStream in) throws IOException {
+                    JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+                    try {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("changes".equals(reader.nextName())) {
+                                reader.beginArray();
+                                while (reader.hasNext()) {
+                                    changeHandler.handle(Change.of(reader, user));
+                                }
+                                reader.endArray();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } catch (IllegalStateException e) {
+                        throw new IOException("Could not parse JSON whilst loading changes", e);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Could not parse JSON whilst loading changes", e);
+                    }
+                    return null;
+                }
+            }, Arrays.asList("changes", user, since));
         } catch (NotInitialisedException e) {
-            return new ArrayList<Change>();
+            // Do nothing.
         }
     }
 
@@ -65,14 +89,18 @@ public class ChangeServiceImpl implements ChangeService {
     }
 
     @Override
-    public void loadNextChangelogPage(Changelog changelog) throws IOException {
+    public void loadNextChangelogPage(Changelog changelog, int pageSize) throws IOException {
         if (changelog.getTotalChanges() < 0 || changelog.getChangelogItems().size() != changelog.getTotalChanges()) {
-            int pageNumber = changelog.getChangelogItems().size() / PAGE_SIZE;
+            int offset = changelog.getChangelogItems().size();
+            int alignedPageSize = alignPageSize(offset, pageSize);
+            int pageNumber = offset / alignedPageSize;
+            // Skip any items in the page that have already been loaded.
+            int alreadyLoaded = offset - pageNumber * alignedPageSize;
             try {
-                JSONObject obj = io.loadJson("changelog", preferences.getUser(), Integer.toString(pageNumber), Integer.toString(PAGE_SIZE));
+                JSONObject obj = io.loadJson("changelog", preferences.getUser(), Integer.toString(pageNumber), Integer.toString(alignedPageSize));
                 changelog.setTotalChanges(obj.getInt("total"));
                 JSONArray jsonArray = obj.getJSONArray("changelog");
-                for (int idx = 0; idx < jsonArray.length(); idx++) {
+                for (int idx = alreadyLoaded; idx < jsonArray.length(); idx++) {
                     changelog.getChangelogItems().add(ChangelogItem.of(jsonArray.getJSONObject(idx), iso8601));
                 }
             } catch (JSONException e) {
@@ -82,4 +110,16 @@ public class ChangeServiceImpl implements ChangeService {
             }
         }
     }
+
+    /**
+     * The server pages by page number, so shrink the requested page size to a multiple of {@link #MIN_PAGE_SIZE}
+     * that the current offset falls on a page boundary of.
+     */
+    protected int alignPageSize(int offset, int pageSize) {
+        int alignedPageSize = Math.max(MIN_PAGE_SIZE, pageSize / MIN_PAGE_SIZE * MIN_PAGE_SIZE);
+        while (alignedPageSize > MIN_PAGE_SIZE && offset % alignedPageSize != 0) {
+            alignedPageSize -= MIN_PAGE_SIZE;
+        }
+        return alignedPageSize;
+    }
 }
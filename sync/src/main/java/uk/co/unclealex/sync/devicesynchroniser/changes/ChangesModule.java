@@ -1,5 +1,6 @@
 package uk.co.unclealex.sync.devicesynchroniser.changes;
 
+import android.content.SharedPreferences;
 import dagger.Module;
 import dagger.Provides;
 import uk.co.unclealex.sync.devicesynchroniser.dates.Iso8601;
@@ -23,4 +24,10 @@ public class ChangesModule {
         return new ChangeServiceImpl(io, preferences, iso8601);
     }
 
+    @Provides
+    @Singleton
+    public PendingChangeCount providePendingChangeCount(ChangeService changeService, Preferences preferences, SharedPreferences sharedPreferences) {
+        return new PendingChangeCount(changeService, preferences, sharedPreferences);
+    }
+
 }
\ No newline at end of file
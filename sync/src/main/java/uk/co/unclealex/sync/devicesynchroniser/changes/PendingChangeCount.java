@@ -0,0 +1,158 @@
+package uk.co.unclealex.sync.devicesynchroniser.changes;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
+import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cached count of the changes made since the device was last synchronised. The count is reloaded in the
+ * background every few minutes and as soon as it is invalidated by the last synchronisation time or the server
+ * details changing, so that it is usually available without waiting for the network. If the count cannot be
+ * loaded the last good count is kept.
+ */
+public class PendingChangeCount implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static final String TAG = PendingChangeCount.class.getSimpleName();
+
+    private static final long TIME_TO_LIVE_MILLIS = 5 * 60 * 1000;
+
+    private static final Set<String> INVALIDATING_KEYS = new HashSet<String>(Arrays.asList(
+            "pref_since", "pref_username", "pref_host_name", "pref_host_port"));
+
+    public interface Callback {
+        /**
+         * Called on the main thread with the number of pending changes.
+         */
+        void onCount(int count);
+
+        /**
+         * Called on the main thread if the number of pending changes could not be loaded and there is no previous
+         * count to fall back on.
+         */
+        void onCountUnavailable();
+    }
+
+    private final ChangeService changeService;
+    private final Preferences preferences;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Callback> waitingCallbacks = new ArrayList<Callback>();
+
+    private Integer count;
+    private long loadedAt;
+    private int generation;
+    private boolean refreshing;
+
+    public PendingChangeCount(ChangeService changeService, Preferences preferences, SharedPreferences sharedPreferences) {
+        this.changeService = changeService;
+        this.preferences = preferences;
+        sharedPreferences.registerOnSharedPreferenceChangeListener(this);
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, TIME_TO_LIVE_MILLIS, TIME_TO_LIVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of pending changes. If a count is cached it is passed to the callback straight away. If that
+     * count has expired, or there is none, the callback will also be called once a new count has been loaded.
+     */
+    public synchronized void get(Callback callback) {
+        if (count != null) {
+            callback.onCount(count);
+        }
+        if (count == null || SystemClock.elapsedRealtime() - loadedAt > TIME_TO_LIVE_MILLIS) {
+            waitingCallbacks.add(callback);
+            refresh();
+        }
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (INVALIDATING_KEYS.contains(key)) {
+            invalidate();
+        }
+    }
+
+    public synchronized void invalidate() {
+        count = null;
+        generation++;
+        refresh();
+    }
+
+    protected synchronized void refresh() {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+        final int refreshGeneration = generation;
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                Integer newCount = load();
+                refreshed(refreshGeneration, newCount);
+            }
+        });
+    }
+
+    /**
+     * Load the number of pending changes.
+     * @return The number of pending changes or null if they could not be counted.
+     */
+    protected Integer load() {
+        try {
+            return changeService.countChangesSince(preferences.getUser(), preferences.getSince());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not count the pending changes.", e);
+            return null;
+        } catch (NotInitialisedException e) {
+            Log.i(TAG, "Cannot count the pending changes until the server and user have been set.");
+            return null;
+        }
+    }
+
+    protected synchronized void refreshed(int refreshGeneration, Integer newCount) {
+        refreshing = false;
+        if (refreshGeneration != generation) {
+            // The count was invalidated whilst it was being loaded.
+            refresh();
+            return;
+        }
+        if (newCount != null) {
+            count = newCount;
+            loadedAt = SystemClock.elapsedRealtime();
+        }
+        // A failure keeps the last good count, which is only missing if it was invalidated.
+        final Integer reportedCount = count;
+        final List<Callback> callbacks = new ArrayList<Callback>(waitingCallbacks);
+        waitingCallbacks.clear();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbacks) {
+                    if (reportedCount == null) {
+                        callback.onCountUnavailable();
+                    } else {
+                        callback.onCount(reportedCount);
+                    }
+                }
+            }
+        });
+    }
+}
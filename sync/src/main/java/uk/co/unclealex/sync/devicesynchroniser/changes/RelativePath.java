@@ -2,7 +2,6 @@ package uk.co.unclealex.sync.devicesynchroniser.changes;
 
 import lombok.Data;
 
-import java.io.File;
 import java.util.*;
 
 /**
@@ -14,12 +13,18 @@ public class RelativePath {
     private final List<String> pathSegments;
 
     public static RelativePath of(String path) {
-        File file = new File(path);
-        List<String> newPathSegments = new LinkedList<String>();
+        List<String> newPathSegments = new ArrayList<String>();
+        int start = 0;
+        int end;
         do {
-            newPathSegments.add(0, file.getName());
-            file = file.getParentFile();
-        } while (file != null);
+            end = path.indexOf('/', start);
+            String segment = end < 0 ? path.substring(start) : path.substring(start, end);
+            // Empty segments are ignored, except for a leading one that marks an absolute path.
+            if (!segment.isEmpty() || start == 0) {
+                newPathSegments.add(segment);
+            }
+            start = end + 1;
+        } while (end >= 0);
         return new RelativePath(Collections.unmodifiableList(newPathSegments));
     }
 
@@ -17,9 +17,13 @@ public interface Io {
 
     void loadData(OutputStream out, List<String> pathSegments) throws IOException, NotInitialisedException;
 
+    <T> T loadStream(ResponseReader<T> responseReader, List<String> pathSegments) throws IOException, NotInitialisedException;
+
     JSONObject loadJson(String... pathSegments) throws IOException, JSONException, NotInitialisedException;
 
     JSONObject loadJson(List<String> pathSegments) throws IOException, JSONException, NotInitialisedException;
 
     Uri uriOf(List<String> pathSegments) throws NotInitialisedException;
+
+    IoStatistics getStatistics();
 }
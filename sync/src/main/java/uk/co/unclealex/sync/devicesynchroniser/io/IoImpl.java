@@ -1,23 +1,28 @@
 package uk.co.unclealex.sync.devicesynchroniser.io;
 
 import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
 import lombok.RequiredArgsConstructor;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
 import org.json.JSONException;
 import org.json.JSONObject;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by alex on 31/12/14.
@@ -25,7 +30,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public class IoImpl implements Io {
 
+    private static final String TAG = IoImpl.class.getSimpleName();
+    private static final int BUFFER_SIZE = 16 * 1024;
+
     private final Preferences preferences;
+    private final HttpClient client;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong millis = new AtomicLong();
 
     protected Uri.Builder baseUri() throws NotInitialisedException {
         return new Uri.Builder().scheme("http").encodedAuthority(preferences.getHost() + ":" + preferences.getPort());
@@ -37,25 +50,65 @@ public class IoImpl implements Io {
     }
 
     @Override
-    public void loadData(OutputStream out, List<String> pathSegments) throws IOException, NotInitialisedException {
+    public void loadData(final OutputStream out, List<String> pathSegments) throws IOException, NotInitialisedException {
+        loadStream(new ResponseReader<Void>() {
+            @Override
+            public Void read(InputStream in) throws IOException {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+                return null;
+            }
+        }, pathSegments);
+    }
+
+    @Override
+    public <T> T loadStream(ResponseReader<T> responseReader, List<String> pathSegments) throws IOException, NotInitialisedException {
         String url = uriOf(pathSegments).toString();
-        HttpClient client = new DefaultHttpClient();
         HttpGet httpGet = new HttpGet(url);
-        HttpResponse response = client.execute(httpGet);
-        StatusLine statusLine = response.getStatusLine();
-        int statusCode = statusLine.getStatusCode();
-        if (statusCode == 200) {
-            HttpEntity entity = response.getEntity();
-            try {
-                entity.writeTo(out);
-            } finally {
-                entity.consumeContent();
+        // Timeouts are set on each request, overriding the shared client's, so that changes to them take effect
+        // straight away without losing the client's pooled connections.
+        HttpConnectionParams.setConnectionTimeout(httpGet.getParams(), preferences.getConnectionTimeout());
+        HttpConnectionParams.setSoTimeout(httpGet.getParams(), preferences.getSocketTimeout());
+        CountingInputStream countingIn = null;
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            HttpResponse response = client.execute(httpGet);
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            if (statusCode != 200) {
+                throw new IOException("Calling to " + url + " returned status code " + statusCode);
             }
-        } else {
-            throw new IOException("Calling to " + url + " returned status code " + statusCode);
+            HttpEntity entity = response.getEntity();
+            countingIn = new CountingInputStream(entity.getContent());
+            T result = responseReader.read(countingIn);
+            // Only a fully read response leaves the connection fit to be reused.
+            entity.consumeContent();
+            return result;
+        } catch (IOException e) {
+            // Abort first so that a failed response is never read to the end just to release its connection.
+            httpGet.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            httpGet.abort();
+            throw e;
+        } finally {
+            long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+            long count = countingIn == null ? 0 : countingIn.count;
+            requests.incrementAndGet();
+            bytes.addAndGet(count);
+            millis.addAndGet(elapsedMillis);
+            Log.d(TAG, "Loaded " + count + " bytes from " + url + " in " + elapsedMillis + "ms");
         }
     }
 
+    @Override
+    public IoStatistics getStatistics() {
+        return new IoStatistics(requests.get(), bytes.get(), millis.get());
+    }
+
     @Override
     public Uri uriOf(List<String> pathSegments) throws NotInitialisedException {
         Uri.Builder builder = baseUri();
@@ -78,5 +131,37 @@ public class IoImpl implements Io {
         return obj;
     }
 
+    static class CountingInputStream extends FilterInputStream {
 
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
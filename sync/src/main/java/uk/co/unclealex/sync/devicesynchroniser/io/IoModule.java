@@ -2,6 +2,20 @@ package uk.co.unclealex.sync.devicesynchroniser.io;
 
 import dagger.Module;
 import dagger.Provides;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
 
 import javax.inject.Singleton;
@@ -15,10 +29,35 @@ import javax.inject.Singleton;
 )
 public class IoModule {
 
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int SOCKET_BUFFER_SIZE = 16 * 1024;
+
+    @Provides
+    @Singleton
+    public Io provideIo(Preferences preferences, HttpClient httpClient) {
+        return new IoImpl(preferences, httpClient);
+    }
+
+    /**
+     * A single, pooled HTTP client so that connections to the server are kept alive and reused between requests.
+     * Timeouts are read from the preferences when the client is first created but each request overrides them with
+     * the current preferences.
+     */
     @Provides
     @Singleton
-    public Io provideIo(Preferences preferences) {
-        return new IoImpl(preferences);
+    public HttpClient provideHttpClient(Preferences preferences) {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpConnectionParams.setConnectionTimeout(params, preferences.getConnectionTimeout());
+        HttpConnectionParams.setSoTimeout(params, preferences.getSocketTimeout());
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        return new DefaultHttpClient(connectionManager, params);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package uk.co.unclealex.sync.devicesynchroniser.io;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+/**
+ * A snapshot of how many HTTP requests have been made, how much data they returned and how long they took.
+ */
+@RequiredArgsConstructor
+@Value
+public class IoStatistics {
+
+    private final long requests;
+    private final long bytes;
+    private final long millis;
+
+    /**
+     * Get the statistics for requests made since an earlier snapshot.
+     */
+    public IoStatistics since(IoStatistics earlier) {
+        return new IoStatistics(requests - earlier.requests, bytes - earlier.bytes, millis - earlier.millis);
+    }
+
+    @Override
+    public String toString() {
+        return requests + " requests, " + bytes + " bytes in " + millis + "ms";
+    }
+}
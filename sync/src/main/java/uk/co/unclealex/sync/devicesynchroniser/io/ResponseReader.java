@@ -0,0 +1,11 @@
+package uk.co.unclealex.sync.devicesynchroniser.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read the body of a response directly from the network as it arrives.
+ */
+public interface ResponseReader<T> {
+    T read(InputStream in) throws IOException;
+}
@@ -1,23 +1,18 @@
 package uk.co.unclealex.sync.devicesynchroniser.main;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
+import uk.co.unclealex.sync.devicesynchroniser.cache.ChangelogItemLoader;
 import uk.co.unclealex.sync.devicesynchroniser.changes.Changelog;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangelogItem;
-import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
 import uk.co.unclealex.sync.devicesynchroniser.sync.R;
 import uk.co.unclealex.sync.devicesynchroniser.tags.Tags;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 
 /**
@@ -26,11 +21,11 @@ import java.text.SimpleDateFormat;
 public class ChangelogItemAdapter extends RecyclerView.Adapter<ChangelogItemAdapter.AlbumViewHolder> {
 
     private Changelog changelog;
-    private final MainPresenter mainPresenter;
+    private final ChangelogItemLoader changelogItemLoader;
 
-    public ChangelogItemAdapter(Changelog changelog, MainPresenter mainPresenter) {
+    public ChangelogItemAdapter(Changelog changelog, ChangelogItemLoader changelogItemLoader) {
         this.changelog = changelog;
-        this.mainPresenter = mainPresenter;
+        this.changelogItemLoader = changelogItemLoader;
     }
 
     @Override
@@ -40,64 +35,31 @@ public class ChangelogItemAdapter extends RecyclerView.Adapter<ChangelogItemAdap
 
     @Override
     public void onBindViewHolder(final AlbumViewHolder albumViewHolder, int i) {
-        final ChangelogItem ci = changelog.getChangelogItems().get(i);
-        AsyncTask<Void, Void, Tags> task = new AsyncTask<Void, Void, Tags>() {
+        albumViewHolder.cancelRequest();
+        ChangelogItem ci = changelog.getChangelogItems().get(i);
+        albumViewHolder.vWhen.setText(new SimpleDateFormat("d MMM yyyy, HH:mm").format(ci.getAt()));
+        albumViewHolder.vArtist.setText(null);
+        albumViewHolder.vAlbum.setText(null);
+        albumViewHolder.vCoverArt.setImageDrawable(null);
+        int coverArtSize = albumViewHolder.vCoverArt.getResources().getDimensionPixelSize(R.dimen.album_cover_size);
+        albumViewHolder.request = changelogItemLoader.load(ci, coverArtSize, new ChangelogItemLoader.Callback() {
             @Override
-            protected Tags doInBackground(Void... params) {
-                try {
-                    try {
-                        return mainPresenter.loadTags(ci.getRelativePath());
-                    } catch (NotInitialisedException e) {
-                        return null;
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException("Could not load tags", e);
-                }
-            }
-
-            @Override
-            protected void onPostExecute(final Tags tags) {
-                if (tags == null) {
-                    return;
-                }
-                albumViewHolder.vWhen.setText(new SimpleDateFormat("d MMM yyyy, HH:mm").format(ci.getAt()));
+            public void onTagsLoaded(Tags tags) {
                 albumViewHolder.vArtist.setText(tags.getAlbumArtist());
                 albumViewHolder.vAlbum.setText(tags.getAlbum());
-                AsyncTask<Void, Void, Bitmap> task = new AsyncTask<Void, Void, Bitmap>() {
-                    @Override
-                    protected Bitmap doInBackground(Void... params) {
-                        InputStream in = null;
-                        try {
-                            in = new URL(tags.getCoverArt().toString()).openStream();
-                            Bitmap unscaledBitmap = BitmapFactory.decodeStream(in);
-                            float factor = Math.max(
-                                    albumViewHolder.vCoverArt.getWidth() / (float) unscaledBitmap.getWidth(),
-                                    albumViewHolder.vCoverArt.getHeight() / (float) unscaledBitmap.getHeight());
-                            return Bitmap.createScaledBitmap(unscaledBitmap, (int) (unscaledBitmap.getWidth() * factor), (int) (unscaledBitmap.getHeight() * factor), true);
-
-                        } catch (IOException e) {
-                            throw new RuntimeException("Cannot load picture.", e);
-                        } finally {
-                            if (in != null) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    // Ignore.
-                                }
-                            }
-                        }
-                    }
-
-                    @Override
-                    protected void onPostExecute(Bitmap bitmap) {
-                        albumViewHolder.vCoverArt.setImageBitmap(bitmap);
-                    }
-                };
-                task.execute();
+            }
 
+            @Override
+            public void onCoverArtLoaded(Bitmap coverArt) {
+                albumViewHolder.vCoverArt.setImageBitmap(coverArt);
             }
-        };
-        task.execute();
+        });
+    }
+
+    @Override
+    public void onViewRecycled(AlbumViewHolder albumViewHolder) {
+        albumViewHolder.cancelRequest();
+        super.onViewRecycled(albumViewHolder);
     }
 
     @Override
@@ -114,6 +76,7 @@ public class ChangelogItemAdapter extends RecyclerView.Adapter<ChangelogItemAdap
         protected TextView vAlbum;
         protected TextView vArtist;
         protected ImageView vCoverArt;
+        protected ChangelogItemLoader.Request request;
 
         public AlbumViewHolder(View v) {
             super(v);
@@ -122,5 +85,12 @@ public class ChangelogItemAdapter extends RecyclerView.Adapter<ChangelogItemAdap
             vArtist = (TextView) v.findViewById(R.id.artist_text_view);
             vCoverArt = (ImageView) v.findViewById(R.id.album_cover_view);
         }
+
+        protected void cancelRequest() {
+            if (request != null) {
+                request.cancel();
+                request = null;
+            }
+        }
     }
-}
\ No newline at end of file
+}
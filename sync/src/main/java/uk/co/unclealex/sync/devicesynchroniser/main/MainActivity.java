@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -12,6 +13,7 @@ import android.view.*;
 import android.widget.TextView;
 import uk.co.unclealex.sync.devicesynchroniser.BaseActivity;
 import uk.co.unclealex.sync.devicesynchroniser.BaseFragment;
+import uk.co.unclealex.sync.devicesynchroniser.cache.ChangelogItemLoader;
 import uk.co.unclealex.sync.devicesynchroniser.changes.Changelog;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.PreferencesActivity;
 import uk.co.unclealex.sync.devicesynchroniser.sync.R;
@@ -90,6 +92,9 @@ public class MainActivity extends BaseActivity implements MainView {
         @Inject
         MainPresenter mainPresenter;
 
+        @Inject
+        ChangelogItemLoader changelogItemLoader;
+
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                 Bundle savedInstanceState) {
@@ -100,7 +105,7 @@ public class MainActivity extends BaseActivity implements MainView {
             llm.setOrientation(LinearLayoutManager.VERTICAL);
             recList.setLayoutManager(llm);
             Changelog changelog = new Changelog();
-            recList.setAdapter(new ChangelogItemAdapter(changelog, mainPresenter));
+            recList.setAdapter(new ChangelogItemAdapter(changelog, changelogItemLoader));
             LoadMoreData loadMoreData = new LoadMoreData(changelog, mainPresenter);
             recList.setOnScrollListener(loadMoreData);
             loadMoreData.updateWithExtra(recList);
@@ -139,13 +144,24 @@ public class MainActivity extends BaseActivity implements MainView {
 
     }
 
+    /**
+     * Load more of the changelog before the user reaches the end of it. The size of each page is chosen so that,
+     * at the rate the user is scrolling through items, the next page arrives before the current one runs out.
+     */
     public static class LoadMoreData extends RecyclerView.OnScrollListener {
 
+        private static final int MIN_PAGE_SIZE = 10;
+        private static final int MAX_PAGE_SIZE = 100;
+        private static final float SMOOTHING = 0.3f;
+
         private final Changelog changelog;
         private final MainPresenter mainPresenter;
 
-        private boolean loading = true;
-        int pastVisiblesItems, visibleItemCount, totalItemCount;
+        private boolean loading = false;
+        private float itemsPerSecond = 0;
+        private long latencyMillis = 0;
+        private int lastVisibleItem = -1;
+        private long lastScrollTime = 0;
 
         public LoadMoreData(Changelog changelog, MainPresenter mainPresenter) {
             this.changelog = changelog;
@@ -154,35 +170,73 @@ public class MainActivity extends BaseActivity implements MainView {
 
         @Override
         public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-            visibleItemCount = recyclerView.getLayoutManager().getChildCount();
-            totalItemCount = recyclerView.getLayoutManager().getItemCount();
-            pastVisiblesItems = ((LinearLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition();
-
-            if (loading) {
-                if ((visibleItemCount + pastVisiblesItems) >= totalItemCount) {
-                    updateWithExtra(recyclerView);
-                }
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            int visibleItemCount = layoutManager.getChildCount();
+            int totalItemCount = layoutManager.getItemCount();
+            int lastVisible = layoutManager.findLastVisibleItemPosition();
+            measureScrollRate(lastVisible);
+
+            int remainingItems = totalItemCount - lastVisible - 1;
+            if (remainingItems <= prefetchThreshold(visibleItemCount)) {
+                updateWithExtra(recyclerView);
             }
             super.onScrolled(recyclerView, dx, dy);
         }
 
+        protected void measureScrollRate(int lastVisible) {
+            long now = SystemClock.elapsedRealtime();
+            if (lastVisibleItem >= 0 && lastVisible > lastVisibleItem && now > lastScrollTime) {
+                float rate = (lastVisible - lastVisibleItem) * 1000f / (now - lastScrollTime);
+                itemsPerSecond = itemsPerSecond == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * itemsPerSecond;
+            }
+            if (lastVisible != lastVisibleItem) {
+                lastVisibleItem = lastVisible;
+                lastScrollTime = now;
+            }
+        }
+
+        /**
+         * The number of unseen items left at which the next page should be requested.
+         */
+        protected int prefetchThreshold(int visibleItemCount) {
+            return Math.max(visibleItemCount * 2, itemsWhileLoading());
+        }
+
+        /**
+         * The number of items the user is expected to scroll past while a page is loading.
+         */
+        protected int itemsWhileLoading() {
+            return (int) Math.ceil(itemsPerSecond * latencyMillis / 1000f);
+        }
+
+        protected int nextPageSize() {
+            return Math.min(MAX_PAGE_SIZE, Math.max(MIN_PAGE_SIZE, 2 * itemsWhileLoading()));
+        }
+
         public void updateWithExtra(final RecyclerView recyclerView) {
-            loading = false;
-            AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
+            if (loading || changelog.getChangelogItems().size() == changelog.getTotalChanges()) {
+                return;
+            }
+            loading = true;
+            final int pageSize = nextPageSize();
+            AsyncTask<Void, Void, Long> task = new AsyncTask<Void, Void, Long>() {
                 @Override
-                protected Void doInBackground(Void... params) {
+                protected Long doInBackground(Void... params) {
+                    long startTime = SystemClock.elapsedRealtime();
                     try {
-                        mainPresenter.loadNextChangelogPage(changelog);
+                        mainPresenter.loadNextChangelogPage(changelog, pageSize);
                     } catch (IOException e) {
                         Log.e("main", e.getMessage());
                     }
-                    return null;
+                    return SystemClock.elapsedRealtime() - startTime;
                 }
 
                 @Override
-                protected void onPostExecute(Void aVoid) {
+                protected void onPostExecute(Long elapsedMillis) {
+                    latencyMillis = latencyMillis == 0 ?
+                            elapsedMillis : (long) (SMOOTHING * elapsedMillis + (1 - SMOOTHING) * latencyMillis);
                     recyclerView.getAdapter().notifyDataSetChanged();
-                    loading = true;
+                    loading = false;
                 }
             };
             task.execute();
@@ -5,6 +5,7 @@ import dagger.Module;
 import dagger.Provides;
 import uk.co.unclealex.sync.devicesynchroniser.AppModule;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangeService;
+import uk.co.unclealex.sync.devicesynchroniser.changes.PendingChangeCount;
 import uk.co.unclealex.sync.devicesynchroniser.dates.Iso8601;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
 import uk.co.unclealex.sync.devicesynchroniser.tags.TagsService;
@@ -25,7 +26,7 @@ public class MainModule {
 
     @Provides
     @Singleton
-    public MainPresenter providePresenter(Context context, Preferences preferences, Iso8601 iso8601, ChangeService changeService, TagsService tagsService) {
-        return new MainPresenterImpl(context, view, preferences, iso8601, changeService, tagsService);
+    public MainPresenter providePresenter(Context context, Preferences preferences, Iso8601 iso8601, ChangeService changeService, TagsService tagsService, PendingChangeCount pendingChangeCount) {
+        return new MainPresenterImpl(context, view, preferences, iso8601, changeService, tagsService, pendingChangeCount);
     }
 }
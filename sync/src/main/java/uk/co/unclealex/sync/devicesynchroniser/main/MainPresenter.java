@@ -23,5 +23,5 @@ public interface MainPresenter {
 
     public Tags loadTags(RelativePath relativePath) throws IOException, NotInitialisedException;
 
-    public void loadNextChangelogPage(Changelog changelog) throws IOException;
+    public void loadNextChangelogPage(Changelog changelog, int pageSize) throws IOException;
 }
@@ -1,10 +1,10 @@
 package uk.co.unclealex.sync.devicesynchroniser.main;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import lombok.RequiredArgsConstructor;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangeService;
 import uk.co.unclealex.sync.devicesynchroniser.changes.Changelog;
+import uk.co.unclealex.sync.devicesynchroniser.changes.PendingChangeCount;
 import uk.co.unclealex.sync.devicesynchroniser.changes.RelativePath;
 import uk.co.unclealex.sync.devicesynchroniser.dates.Iso8601;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.NotInitialisedException;
@@ -30,6 +30,7 @@ public class MainPresenterImpl implements MainPresenter {
     private final Iso8601 iso8601;
     private final ChangeService changeService;
     private final TagsService tagsService;
+    private final PendingChangeCount pendingChangeCount;
 
     @Override
     public void synchronise() {
@@ -45,30 +46,25 @@ public class MainPresenterImpl implements MainPresenter {
 
     @Override
     public void updatePendingChanges() {
-        AsyncTask<Void, Void, Boolean> task = new AsyncTask<Void, Void, Boolean>() {
+        pendingChangeCount.get(new PendingChangeCount.Callback() {
             @Override
-            protected Boolean doInBackground(Void... params) {
-                try {
-                    return preferences.getOffset() != 0 || changeService.countChangesSince(preferences.getUser(), preferences.getSince()) != 0;
-                } catch (IOException e) {
-                    return false;
-                } catch (NotInitialisedException e) {
-                    return false;
-                }
+            public void onCount(int count) {
+                boolean changesPending = preferences.getOffset() != 0 || count != 0;
+                int id = changesPending ? R.string.changes_pending : R.string.no_changes_pending;
+                mainView.getPendingChangesTextView().setText(context.getString(id));
             }
 
             @Override
-            protected void onPostExecute(Boolean changesPending) {
-                int id = changesPending ? R.string.changes_pending : R.string.no_changes_pending;
+            public void onCountUnavailable() {
+                int id = preferences.getOffset() != 0 ? R.string.changes_pending : R.string.pending_changes_unknown;
                 mainView.getPendingChangesTextView().setText(context.getString(id));
             }
-        };
-        task.execute();
+        });
     }
 
     @Override
-    public void loadNextChangelogPage(Changelog changelog) throws IOException {
-        changeService.loadNextChangelogPage(changelog);
+    public void loadNextChangelogPage(Changelog changelog, int pageSize) throws IOException {
+        changeService.loadNextChangelogPage(changelog, pageSize);
     }
 
     @Override
@@ -22,8 +22,23 @@ public interface Preferences {
 
     public String getHost() throws NotInitialisedException;
 
+    /**
+     * @return The time, in milliseconds, to wait for a connection to the server.
+     */
+    public int getConnectionTimeout();
+
+    /**
+     * @return The time, in milliseconds, to wait for data from the server.
+     */
+    public int getSocketTimeout();
+
     public void setOffset(int offset);
 
+    /**
+     * Record the offset without waiting for it to be written to disk.
+     */
+    public void checkpointOffset(int offset);
+
     public void setSince(Date since);
 
     public DocumentFile getRootDocumentFile();
@@ -18,6 +18,8 @@ import java.util.Date;
 @RequiredArgsConstructor
 public class PreferencesImpl implements Preferences {
 
+    private static final String TAG = PreferencesImpl.class.getSimpleName();
+
     private final SharedPreferences preferences;
     private final Context context;
     private final Iso8601 iso8601;
@@ -29,7 +31,17 @@ public class PreferencesImpl implements Preferences {
 
     @Override
     public int getPort() {
-        return Integer.parseInt(preferences.getString("pref_host_port", "80"));
+        return intValue("pref_host_port", 80);
+    }
+
+    @Override
+    public int getConnectionTimeout() {
+        return intValue("pref_connection_timeout", 10) * 1000;
+    }
+
+    @Override
+    public int getSocketTimeout() {
+        return intValue("pref_socket_timeout", 60) * 1000;
     }
 
     @Override
@@ -37,6 +49,22 @@ public class PreferencesImpl implements Preferences {
         return requiredString("username");
     }
 
+    /**
+     * Read a number that is stored as a string, falling back to a default if it is empty or not a number.
+     */
+    protected int intValue(String key, int defaultValue) {
+        String value = preferences.getString(key, "").trim();
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring " + key + " as " + value + " is not a number. Using " + defaultValue + " instead.");
+            return defaultValue;
+        }
+    }
+
     protected String requiredString(String propertySuffix) throws NotInitialisedException {
         String value = preferences.getString("pref_" + propertySuffix, "");
         if (value.isEmpty()) {
@@ -47,7 +75,7 @@ public class PreferencesImpl implements Preferences {
 
     @Override
     public int getOffset() {
-        return Integer.parseInt(preferences.getString("pref_offset", "0"));
+        return intValue("pref_offset", 0);
     }
 
     @Override
@@ -79,6 +107,11 @@ public class PreferencesImpl implements Preferences {
         put("pref_offset", offset);
     }
 
+    @Override
+    public void checkpointOffset(int offset) {
+        preferences.edit().putString("pref_offset", Integer.toString(offset)).apply();
+    }
+
     @Override
     public void setSince(Date since) {
         put("pref_since", iso8601.format(since));
@@ -0,0 +1,54 @@
+package uk.co.unclealex.sync.devicesynchroniser.sync;
+
+import android.os.SystemClock;
+import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
+
+/**
+ * Periodically record how far through a synchronisation the device has got so that, if the process is killed,
+ * the next synchronisation can carry on from where this one left off. Checkpoints are written asynchronously
+ * every so many tracks or so many seconds, whichever comes first.
+ */
+public class Checkpointer {
+
+    private static final int DEFAULT_TRACKS = 10;
+    private static final long DEFAULT_MILLIS = 30 * 1000;
+
+    private final Preferences preferences;
+    private final int maxTracks;
+    private final long maxMillis;
+
+    private int tracksSinceCheckpoint;
+    private long lastCheckpointTime = SystemClock.elapsedRealtime();
+
+    public Checkpointer(Preferences preferences) {
+        this(preferences, DEFAULT_TRACKS, DEFAULT_MILLIS);
+    }
+
+    public Checkpointer(Preferences preferences, int maxTracks, long maxMillis) {
+        this.preferences = preferences;
+        this.maxTracks = maxTracks;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Note that a track has been synchronised.
+     * @param nextOffset The offset of the next change to synchronise.
+     */
+    public void trackSynchronised(int nextOffset) {
+        tracksSinceCheckpoint++;
+        long now = SystemClock.elapsedRealtime();
+        if (tracksSinceCheckpoint >= maxTracks || now - lastCheckpointTime >= maxMillis) {
+            preferences.checkpointOffset(nextOffset);
+            tracksSinceCheckpoint = 0;
+            lastCheckpointTime = now;
+        }
+    }
+
+    /**
+     * Durably record the offset at the end of a synchronisation.
+     * @param offset The offset of the next change to synchronise, or zero if synchronisation was successful.
+     */
+    public void finish(int offset) {
+        preferences.setOffset(offset);
+    }
+}
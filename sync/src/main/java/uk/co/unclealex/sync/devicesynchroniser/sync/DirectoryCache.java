@@ -0,0 +1,98 @@
+package uk.co.unclealex.sync.devicesynchroniser.sync;
+
+import android.net.Uri;
+import android.support.v4.provider.DocumentFile;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A cache of the children of directories, keyed case insensitively by name. Listing a directory through a
+ * content provider is expensive, so each directory is listed at most once and then kept up to date as files
+ * are created and deleted. A cache should only live for as long as a single synchronisation.
+ */
+public class DirectoryCache {
+
+    private final Map<Uri, Map<String, DocumentFile>> childrenByDirectory = new HashMap<Uri, Map<String, DocumentFile>>();
+
+    private int lookups;
+    private int listings;
+
+    public DocumentFile findChild(DocumentFile directory, String name) {
+        lookups++;
+        return children(directory).get(keyOf(name));
+    }
+
+    public DocumentFile createDirectory(DocumentFile directory, String name) {
+        DocumentFile child = directory.createDirectory(name);
+        if (child != null) {
+            children(directory).put(keyOf(nameOf(child, name)), child);
+            childrenByDirectory.put(child.getUri(), new HashMap<String, DocumentFile>());
+        }
+        return child;
+    }
+
+    public DocumentFile createFile(DocumentFile directory, String mimeType, String name) {
+        DocumentFile child = directory.createFile(mimeType, name);
+        if (child != null) {
+            children(directory).put(keyOf(nameOf(child, name)), child);
+        }
+        return child;
+    }
+
+    public boolean delete(DocumentFile directory, DocumentFile child) {
+        // A deleted document no longer has a name so the key has to be found first.
+        String key = keyOf(child.getName());
+        Uri uri = child.getUri();
+        boolean deleted = child.delete();
+        if (deleted) {
+            children(directory).remove(key);
+            childrenByDirectory.remove(uri);
+        }
+        return deleted;
+    }
+
+    public boolean isEmpty(DocumentFile directory) {
+        lookups++;
+        return children(directory).isEmpty();
+    }
+
+    protected Map<String, DocumentFile> children(DocumentFile directory) {
+        Map<String, DocumentFile> children = childrenByDirectory.get(directory.getUri());
+        if (children == null) {
+            listings++;
+            children = new HashMap<String, DocumentFile>();
+            for (DocumentFile child : directory.listFiles()) {
+                children.put(keyOf(child.getName()), child);
+            }
+            childrenByDirectory.put(directory.getUri(), children);
+        }
+        return children;
+    }
+
+    /**
+     * Get the name a document was actually created with, as a content provider may rename it to avoid a clash.
+     */
+    protected String nameOf(DocumentFile child, String requestedName) {
+        String name = child.getName();
+        return name == null ? requestedName : name;
+    }
+
+    protected String keyOf(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ENGLISH);
+    }
+
+    public int getLookups() {
+        return lookups;
+    }
+
+    public int getListings() {
+        return listings;
+    }
+
+    @Override
+    public String toString() {
+        return lookups + " directory lookups using " + listings + " directory listings";
+    }
+}
@@ -10,7 +10,10 @@ import dagger.ObjectGraph;
 import org.json.JSONException;
 import uk.co.unclealex.sync.devicesynchroniser.App;
 import uk.co.unclealex.sync.devicesynchroniser.changes.Change;
+import uk.co.unclealex.sync.devicesynchroniser.changes.ChangeHandler;
 import uk.co.unclealex.sync.devicesynchroniser.changes.ChangeService;
+import uk.co.unclealex.sync.devicesynchroniser.io.Io;
+import uk.co.unclealex.sync.devicesynchroniser.io.IoStatistics;
 import uk.co.unclealex.sync.devicesynchroniser.notifications.NotificationsService;
 import uk.co.unclealex.sync.devicesynchroniser.prefs.Preferences;
 
@@ -37,6 +40,8 @@ public class SynchroniseService extends IntentService {
     Preferences preferences;
     @Inject
     ChangeService changeService;
+    @Inject
+    Io io;
 
     private ObjectGraph activityGraph;
 
@@ -71,6 +76,7 @@ public class SynchroniseService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         notificationsService.initialiseOngoingNotification(this, R.string.notification_start_message);
+        IoStatistics initialStatistics = io.getStatistics();
         try {
             new Action(preferences.getRootDocumentFile(), preferences.getSince(), preferences.getUser(), preferences.getOffset()).execute();
         } catch (Exception e) {
@@ -79,6 +85,7 @@ public class SynchroniseService extends IntentService {
             Log.e(SynchroniseService.class.getName(), writer.toString());
             notificationsService.showClearableNotification(R.string.notification_failure_message, e.getMessage());
         } finally {
+            Log.i(SynchroniseService.class.getName(), "Synchronising made " + io.getStatistics().since(initialStatistics));
             stopForeground(false);
         }
     }
@@ -89,6 +96,7 @@ public class SynchroniseService extends IntentService {
         private final String since;
         private final String user;
         private final int offset;
+        private final DirectoryCache directoryCache = new DirectoryCache();
 
         public Action(DocumentFile rootDir, String since, String user, int offset) {
             this.rootDir = rootDir;
@@ -98,28 +106,50 @@ public class SynchroniseService extends IntentService {
         }
         public void execute() throws Exception {
             Date now = new Date();
-            List<Change> changes = changeService.changesSince(user, since);
-            int len = changes.size();
-            int idx = 0;
+            UntriedChanges untriedChanges = new UntriedChanges();
+            // Music is only copied once all the changes have been read, so that the response is not held open
+            // whilst tracks are downloaded.
+            changeService.changesSince(user, since, untriedChanges);
+            int len = untriedChanges.total;
+            int idx = offset;
+            Checkpointer checkpointer = new Checkpointer(preferences);
             try {
-                for (Change change : changes) {
-                    if (idx >= offset) {
-                        notificationsService.showOngoingNotification(R.string.notification_ongoing_message, idx, len, change.getRelativePath());
-                        if (Change.Type.ADDED.equals(change.getType())) {
-                            add(change);
-                        } else {
-                            remove(change);
-                        }
+                for (Change change : untriedChanges.changes) {
+                    notificationsService.showOngoingNotification(R.string.notification_ongoing_message, idx, len, change.getRelativePath());
+                    if (Change.Type.ADDED.equals(change.getType())) {
+                        add(change);
+                    } else {
+                        remove(change);
                     }
+                    checkpointer.trackSynchronised(idx + 1);
                     idx++;
                 }
                 preferences.setSince(now);
                 notificationsService.showClearableNotification(R.string.notification_success_message, len);
             } catch (Exception e) {
-                preferences.setOffset(idx);
+                checkpointer.finish(idx);
                 throw e;
+            } finally {
+                Log.i(SynchroniseService.class.getName(), "Synchronising made " + directoryCache);
+            }
+            checkpointer.finish(0);
+        }
+
+        /**
+         * Keep only the changes that have not already been synchronised, whilst counting them all.
+         */
+        class UntriedChanges implements ChangeHandler {
+
+            private final List<Change> changes = new ArrayList<Change>();
+            private int total;
+
+            @Override
+            public void handle(Change change) {
+                if (total >= offset) {
+                    changes.add(change);
+                }
+                total++;
             }
-            preferences.setOffset(0);
         }
 
         public void add(Change change) throws IOException, JSONException {
@@ -127,24 +157,18 @@ public class SynchroniseService extends IntentService {
             DocumentFile albumDir = rootDir;
             while (changePathSegments.size() != 1) {
                 String dir = changePathSegments.remove(0);
-                DocumentFile[] children = albumDir.listFiles();
-                DocumentFile child = null;
-                for (int idx = 0; child == null && idx < children.length; idx++) {
-                    if (children[idx].getName().equalsIgnoreCase(dir)) {
-                        child = children[idx];
-                    }
-                }
+                DocumentFile child = directoryCache.findChild(albumDir, dir);
                 if (child == null) {
-                    albumDir = albumDir.createDirectory(dir);
+                    albumDir = directoryCache.createDirectory(albumDir, dir);
                 }
                 else {
                     albumDir = child;
                 }
             }
             String filename = changePathSegments.get(0);
-            DocumentFile trackFile = albumDir.findFile(filename);
+            DocumentFile trackFile = directoryCache.findChild(albumDir, filename);
             if (trackFile == null) {
-                trackFile = albumDir.createFile("audio/mp3", filename);
+                trackFile = directoryCache.createFile(albumDir, "audio/mp3", filename);
             }
             OutputStream out = getContentResolver().openOutputStream(trackFile.getUri());
             changeService.copyChange(change, out);
@@ -161,19 +185,20 @@ public class SynchroniseService extends IntentService {
         }
 
         public void remove(Change change) throws IOException {
+            List<DocumentFile> directories = new ArrayList<DocumentFile>();
             DocumentFile documentFile = rootDir;
             List<String> pathSegments = new ArrayList<String>(change.getRelativePath().getPathSegments());
             do {
                 String ps = pathSegments.remove(0);
-                documentFile = documentFile.findFile(ps);
+                directories.add(documentFile);
+                documentFile = directoryCache.findChild(documentFile, ps);
             } while (!pathSegments.isEmpty() && documentFile != null);
             // Only delete files if they exist.
             if (documentFile != null) {
-                documentFile.delete();
-                DocumentFile parent = documentFile.getParentFile();
-                while (parent.listFiles().length == 0) {
-                    parent.delete();
-                    parent = parent.getParentFile();
+                directoryCache.delete(directories.get(directories.size() - 1), documentFile);
+                // Remove any directories that are now empty, but never the root directory.
+                for (int idx = directories.size() - 1; idx > 0 && directoryCache.isEmpty(directories.get(idx)); idx--) {
+                    directoryCache.delete(directories.get(idx - 1), directories.get(idx));
                 }
             }
         }